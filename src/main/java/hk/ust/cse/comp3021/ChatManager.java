@@ -11,6 +11,7 @@ import org.jline.reader.*;
 import org.jline.reader.impl.completer.StringsCompleter;
 import org.jline.terminal.Terminal;
 import org.jline.terminal.TerminalBuilder;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.reflections.Reflections;
 
@@ -73,6 +74,7 @@ public class ChatManager {
     static final Map<String, String> adminMenus = new LinkedHashMap<>() {
         {
             put("profile", "show the system profile of the database");
+            put("profiles", "generate the profiles of all users and the database at once");
             put("help", "show this help message");
             put("exit", "exit the program");
         }
@@ -229,10 +231,11 @@ public class ChatManager {
         if (session == null) {
             return;
         }
+        JSONArray trimmedTags = new JSONArray();
         for (String tag : tags) {
-            session.getJSONArray("tags").put(tag.trim());
+            trimmedTags.put(tag.trim());
         }
-        SessionManager.setSession(user, sessionUID, session);
+        SessionManager.updateSession(user, SessionLog.record("addTags", user, sessionUID).put("tags", trimmedTags));
     }
 
     /**
@@ -247,13 +250,7 @@ public class ChatManager {
         if (session == null) {
             return;
         }
-        for (int i = 0; i < session.getJSONArray("tags").length(); i++) {
-            if (session.getJSONArray("tags").getString(i).equals(tag)) {
-                session.getJSONArray("tags").remove(i);
-                break;
-            }
-        }
-        SessionManager.setSession(user, sessionUID, session);
+        SessionManager.updateSession(user, SessionLog.record("removeTag", user, sessionUID).put("tag", tag));
     }
 
     /**
@@ -268,8 +265,8 @@ public class ChatManager {
         if (session == null) {
             return;
         }
-        session.put("description", description.trim());
-        SessionManager.setSession(user, sessionUID, session);
+        SessionManager.updateSession(user, SessionLog.record("setDescription", user, sessionUID)
+                .put("description", description.trim()));
     }
 
     /**
@@ -279,7 +276,7 @@ public class ChatManager {
      */
     public static void repl(String user) {
         Utils.printlnInfo(banner + String.format("Welcome %s to LLM ChatManager!", user));
-        SessionManager.loadDatabase();
+        SessionManager.loadDatabase(user);
         SessionManager.initSessions(user);
         printHelp(menus);
 
@@ -391,6 +388,9 @@ public class ChatManager {
                     case "profile":
                         SessionManager.profile("admin");
                         break;
+                    case "profiles":
+                        SessionManager.profileAll();
+                        break;
                     case "help":
                         printHelp(adminMenus);
                         break;
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DatabaseVersion class numbers the states of the session database, the version is bumped by every mutation, so
+ * two equal versions always mean the same sessions.
+ * <p>
+ * The version is persisted with a random epoch naming the database, the epoch changes whenever the version file is
+ * lost, so that versions of different databases never compare equal. Writing the file on every mutation would be
+ * too slow, so the versions are reserved in blocks: before the version exceeds the persisted one, the end of the
+ * next block is written. If the process stops without saving, it restarts from the end of the block, a version
+ * never used before. Saving the database persists the exact version.
+ */
+public class DatabaseVersion {
+    /**
+     * The number of versions reserved at once
+     */
+    static final long reserveBlock = 1024;
+
+    /**
+     * The path to the version file
+     */
+    private final Path path;
+
+    /**
+     * The current version
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * The epoch naming the database
+     */
+    private volatile String epoch = UUID.randomUUID().toString();
+
+    /**
+     * The first version not reserved in the version file yet
+     */
+    private volatile long reserved = 1;
+
+    /**
+     * Constructor of DatabaseVersion
+     *
+     * @param path the path to the version file
+     */
+    DatabaseVersion(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Load the version from the version file, a new epoch starts from version 0 if the file is missing or malformed
+     */
+    synchronized void load() {
+        try {
+            JSONObject saved = new JSONObject(Files.readString(path));
+            epoch = saved.getString("epoch");
+            version.set(saved.getLong("version"));
+        } catch (NoSuchFileException e) {
+            epoch = UUID.randomUUID().toString();
+            version.set(0);
+        } catch (IOException | JSONException e) {
+            Utils.printlnError("Failed to load the database version: " + e.getMessage());
+            epoch = UUID.randomUUID().toString();
+            version.set(0);
+        }
+        reserved = version.get() + 1;
+    }
+
+    /**
+     * Bump the version for a mutation, reserving the next block of versions first if needed
+     */
+    void bump() {
+        long bumped = version.incrementAndGet();
+        if (bumped >= reserved) {
+            reserve(bumped);
+        }
+    }
+
+    /**
+     * Reserve the block of versions starting from a version
+     *
+     * @param from the first version of the block
+     */
+    private synchronized void reserve(long from) {
+        if (from < reserved) {
+            return;
+        }
+        write(from + reserveBlock);
+        reserved = from + reserveBlock;
+    }
+
+    /**
+     * Persist the exact version, called when the database is saved
+     */
+    synchronized void save() {
+        long current = version.get();
+        write(current);
+        reserved = current + 1;
+    }
+
+    /**
+     * Write the version file
+     *
+     * @param persisted the version to persist
+     */
+    private void write(long persisted) {
+        try {
+            JSONObject saved = new JSONObject().put("epoch", epoch).put("version", persisted);
+            SessionShards.writeAtomically(path, saved.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Utils.printlnError("Failed to save the database version: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the current version
+     *
+     * @return the version
+     */
+    long get() {
+        return version.get();
+    }
+
+    /**
+     * Get the tag of the current version, unique across databases
+     *
+     * @return the epoch and the version
+     */
+    String getTag() {
+        return epoch + "-" + version.get();
+    }
+}
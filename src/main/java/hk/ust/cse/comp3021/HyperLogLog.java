@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * HyperLogLog class estimates the number of distinct strings in fixed memory.
+ * <p>
+ * A string is hashed to 64 bits, the first {@link #precision} bits pick a register and the register keeps the
+ * longest run of leading zeros seen in the rest. With 2^12 registers of one byte, the estimate has a standard error
+ * of 1.04 / sqrt(4096), about 1.6%. Two sketches merge by the max of each register, so the merge of the sketches
+ * of two partitions is the sketch of their union. A sketch is not thread-safe.
+ * <p>
+ * A sketch of a few strings keeps their distinct hashes instead, and allocates the registers only once it has seen
+ * more than {@link #sparseLimit} of them, so that the many small sketches of per-user profiles stay small. The
+ * estimate of a sparse sketch is the one of the registers it would have.
+ */
+public class HyperLogLog {
+    /**
+     * The number of bits of the hash picking a register
+     */
+    static final int precision = 12;
+
+    /**
+     * The number of registers
+     */
+    static final int numRegisters = 1 << precision;
+
+    /**
+     * The number of distinct hashes a sparse sketch keeps before allocating the registers
+     */
+    static final int sparseLimit = 64;
+
+    /**
+     * The distinct hashes counted while the sketch is sparse, null once the registers are allocated
+     */
+    private long[] hashes = new long[4];
+
+    /**
+     * The number of distinct hashes counted while the sketch is sparse
+     */
+    private int numHashes;
+
+    /**
+     * The registers, the longest run of leading zeros plus one seen in the hashes of each register, null while the
+     * sketch is sparse
+     */
+    private byte[] registers;
+
+    /**
+     * Hash a string in a char buffer to 64 bits, the same as {@link #hash(String)} of the string
+     *
+     * @param chars  the buffer holding the string at its start
+     * @param length the length of the string
+     * @return the hash
+     */
+    static long hash(char[] chars, int length) {
+        // FNV-1a over the chars, then the finalizer of MurmurHash3 so that every bit depends on every char
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ chars[i]) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Hash a string to 64 bits
+     *
+     * @param str the string
+     * @return the hash
+     */
+    static long hash(String str) {
+        return hash(str.toCharArray(), str.length());
+    }
+
+    /**
+     * Count a string by its hash
+     *
+     * @param hash the hash of the string, see {@link #hash(String)}
+     */
+    void add(long hash) {
+        if (registers != null) {
+            addToRegisters(registers, hash);
+            return;
+        }
+        for (int i = 0; i < numHashes; i++) {
+            if (hashes[i] == hash) {
+                return;
+            }
+        }
+        if (numHashes == sparseLimit) {
+            registers = toRegisters();
+            hashes = null;
+            addToRegisters(registers, hash);
+            return;
+        }
+        if (numHashes == hashes.length) {
+            hashes = Arrays.copyOf(hashes, Math.min(hashes.length * 2, sparseLimit));
+        }
+        hashes[numHashes++] = hash;
+    }
+
+    /**
+     * Count a hash in the registers
+     *
+     * @param registers the registers
+     * @param hash      the hash
+     */
+    private static void addToRegisters(byte[] registers, long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // the guard bit bounds the run when the rest of the hash is all zeros
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * Merge another sketch into this one
+     *
+     * @param other the other sketch, never modified
+     */
+    void merge(HyperLogLog other) {
+        if (other.registers == null) {
+            for (int i = 0; i < other.numHashes; i++) {
+                add(other.hashes[i]);
+            }
+            return;
+        }
+        if (registers == null) {
+            registers = toRegisters();
+            hashes = null;
+        }
+        for (int i = 0; i < numRegisters; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Get the registers of the sketch, the ones a sparse sketch would have
+     *
+     * @return the registers, a copy for a sparse sketch
+     */
+    private byte[] toRegisters() {
+        if (registers != null) {
+            return registers;
+        }
+        byte[] result = new byte[numRegisters];
+        for (int i = 0; i < numHashes; i++) {
+            addToRegisters(result, hashes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Encode the sketch, the registers or, while sparse, the big-endian hashes
+     *
+     * @return the sketch in Base64
+     */
+    String encode() {
+        if (registers != null) {
+            return Base64.getEncoder().encodeToString(registers);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(numHashes * Long.BYTES);
+        for (int i = 0; i < numHashes; i++) {
+            buffer.putLong(hashes[i]);
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decode a sketch encoded by {@link #encode}
+     *
+     * @param encoded the sketch in Base64
+     * @return the sketch
+     * @throws IllegalArgumentException if the sketch is malformed
+     */
+    static HyperLogLog decode(String encoded) {
+        byte[] decoded = Base64.getDecoder().decode(encoded);
+        HyperLogLog sketch = new HyperLogLog();
+        if (decoded.length == numRegisters) {
+            sketch.registers = decoded;
+            sketch.hashes = null;
+            return sketch;
+        }
+        if (decoded.length % Long.BYTES != 0 || decoded.length > sparseLimit * Long.BYTES) {
+            throw new IllegalArgumentException("Expected " + numRegisters + " registers or at most " + sparseLimit
+                    + " hashes but got " + decoded.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(decoded);
+        while (buffer.hasRemaining()) {
+            sketch.add(buffer.getLong());
+        }
+        return sketch;
+    }
+
+    /**
+     * Estimate the number of distinct strings counted
+     *
+     * @return the estimate
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : toRegisters()) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / numRegisters);
+        double estimate = alpha * numRegisters * numRegisters / sum;
+        // the raw estimate is biased for small sets, where counting the empty registers is accurate
+        if (estimate <= 2.5 * numRegisters && zeros > 0) {
+            estimate = numRegisters * Math.log((double) numRegisters / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * MaterializedProfile class keeps the statistics of a profile before post processing, maintained as sessions are
+ * written rather than recomputed from all the sessions.
+ * <p>
+ * A session is added or subtracted through its contribution, the profile accumulated from that session alone
+ * (see {@link SessionManager#contributionOf}), so the statistics are the same as the ones of the profile collector.
+ * Every statistic can be decremented: the max and min are kept in a multiset of all the values, the top
+ * strings keep the counts of all the strings, and the users active in each month keep the number of their sessions
+ * active in the month. The sketches of the active users are built from those users on {@link #toProfile}, the same
+ * sketches as the ones of the collector.
+ */
+public class MaterializedProfile {
+    /**
+     * The sums and the counts of the top strings
+     */
+    private final ProfileAccumulator sums = new ProfileAccumulator();
+
+    /**
+     * The multisets of the values of the statistics with a max and a min, in the order of
+     * {@link ProfileAccumulator#rangeKeys}, a map of value and count
+     */
+    private final List<TreeMap<Long, Integer>> ranges = new ArrayList<>();
+
+    /**
+     * The users active in each month, a map of month and a map of user and the number of their sessions active in
+     * the month
+     */
+    private final Map<String, Map<String, Integer>> activeUsers = new HashMap<>();
+
+    /**
+     * Constructor of MaterializedProfile, the profile of no session
+     */
+    MaterializedProfile() {
+        for (int i = 0; i < ProfileAccumulator.rangeKeys.length; i++) {
+            ranges.add(new TreeMap<>());
+        }
+    }
+
+    /**
+     * Add the contribution of a session to the profile
+     *
+     * @param user         the user of the session
+     * @param contribution the contribution of the session
+     */
+    synchronized void add(String user, ProfileAccumulator contribution) {
+        apply(user, contribution, 1);
+    }
+
+    /**
+     * Subtract the contribution of a session from the profile, the session must have been added before
+     *
+     * @param user         the user of the session
+     * @param contribution the contribution of the session
+     */
+    synchronized void subtract(String user, ProfileAccumulator contribution) {
+        apply(user, contribution, -1);
+    }
+
+    /**
+     * Add or subtract the contribution of a session
+     *
+     * @param user         the user of the session
+     * @param contribution the contribution of the session
+     * @param sign         1 to add or -1 to subtract
+     */
+    private void apply(String user, ProfileAccumulator contribution, int sign) {
+        sums.addSums(contribution, sign);
+        for (int i = 0; i < ranges.size(); i++) {
+            // the max and min of a single session are both its value
+            ranges.get(i).merge(contribution.max[i], sign, MaterializedProfile::sumOrRemove);
+        }
+        sums.addCounts(contribution, sign);
+        // the months of a single session are the months its user is active by it
+        for (String month : contribution.activeUsers.keySet()) {
+            Map<String, Integer> users = activeUsers.computeIfAbsent(month, k -> new HashMap<>());
+            users.merge(user, sign, MaterializedProfile::sumOrRemove);
+            if (users.isEmpty()) {
+                activeUsers.remove(month);
+            }
+        }
+    }
+
+    /**
+     * Sum two counts, used to merge the counts of the multisets
+     *
+     * @param count1 the first count
+     * @param count2 the second count
+     * @return the sum, or null to remove the value no session has any more
+     */
+    private static Integer sumOrRemove(Integer count1, Integer count2) {
+        int sum = count1 + count2;
+        return sum == 0 ? null : sum;
+    }
+
+    /**
+     * Get the profile before post processing, in the same state as the profile accumulated by the collector
+     *
+     * @return a copy of the profile
+     */
+    synchronized ProfileAccumulator toProfile() {
+        ProfileAccumulator profile = new ProfileAccumulator();
+        profile.addSums(sums, 1);
+        profile.addCounts(sums, 1);
+        for (int i = 0; i < ranges.size(); i++) {
+            if (!ranges.get(i).isEmpty()) {
+                profile.max[i] = ranges.get(i).lastKey();
+                profile.min[i] = ranges.get(i).firstKey();
+            }
+        }
+        activeUsers.forEach((month, users) -> {
+            HyperLogLog sketch = new HyperLogLog();
+            users.keySet().forEach(user -> sketch.add(HyperLogLog.hash(user)));
+            profile.activeUsers.put(month, sketch);
+        });
+        return profile;
+    }
+}
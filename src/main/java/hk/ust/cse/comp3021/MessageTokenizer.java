@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.util.Arrays;
+
+/**
+ * MessageTokenizer class splits messages into lowercase words in a single pass over the characters.
+ * <p>
+ * A word is a maximal run of ASCII letters and digits that contains no digit, lowercased, e.g. "Hello, GPT4 world"
+ * has the words "hello" and "world". The words are written into a buffer reused for all the words, so tokenizing
+ * creates no string. A tokenizer is not thread-safe, every thread uses its own.
+ */
+public class MessageTokenizer {
+    /**
+     * The receiver of the words, called once per word in order
+     */
+    @FunctionalInterface
+    interface TokenSink {
+        /**
+         * Receive a word, the buffer is reused for the next word and must not be kept
+         *
+         * @param word   the buffer holding the word in lowercase
+         * @param length the length of the word at the start of the buffer
+         */
+        void accept(char[] word, int length);
+    }
+
+    /**
+     * The buffer holding the current word, grown when a longer word comes
+     */
+    private char[] word = new char[32];
+
+    /**
+     * Tokenize the text into words
+     *
+     * @param text the text
+     * @param sink the receiver of the words
+     */
+    void tokenize(CharSequence text, TokenSink sink) {
+        int length = 0;
+        boolean hasDigit = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c >= 'a' && c <= 'z') {
+                // the letters of a run with a digit are dropped anyway
+                if (!hasDigit) {
+                    append(length, c);
+                }
+                length++;
+            } else if (c >= '0' && c <= '9') {
+                // the run goes on, but it is no longer a word
+                hasDigit = true;
+                length++;
+            } else {
+                if (length > 0 && !hasDigit) {
+                    sink.accept(word, length);
+                }
+                length = 0;
+                hasDigit = false;
+            }
+        }
+        if (length > 0 && !hasDigit) {
+            sink.accept(word, length);
+        }
+    }
+
+    /**
+     * Put a letter into the buffer
+     *
+     * @param pos    the position of the letter in the word
+     * @param letter the letter in lowercase
+     */
+    private void append(int pos, char letter) {
+        if (pos >= word.length) {
+            word = Arrays.copyOf(word, Math.max(word.length * 2, pos + 1));
+        }
+        word[pos] = letter;
+    }
+}
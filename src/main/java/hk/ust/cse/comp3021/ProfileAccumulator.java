@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ProfileAccumulator class is the mutable state of the profile collector.
+ * The statistics are primitive fields and the top strings are counted in {@link StringIntMap}s, so accumulating and
+ * combining never box a number. It is converted to the JSON profile only by {@link SessionManager#postProcess}.
+ * <p>
+ * Before post processing, an exact profile also converts to and from JSON with all the counts of its top strings
+ * and histograms, so that the profiles accumulated by other processes combine as if accumulated here.
+ */
+public class ProfileAccumulator implements Serializable {
+    /**
+     * The statistics with a max and a min, in the order of {@link #max} and {@link #min}
+     */
+    static final String[] rangeKeys = {"PromptTokens", "CompletionTokens", "TimeCreated", "TimeLastOpen",
+            "TimeLastExit"};
+
+    /**
+     * The session fields of the statistics with a max and a min, in the order of {@link #rangeKeys}
+     */
+    static final String[] rangeFields = {"totalPromptTokens", "totalCompletionTokens", "timeCreated",
+            "timeLastOpen", "timeLastExit"};
+
+    /**
+     * The statistics with quantiles, in the order of {@link #quantiles}
+     */
+    static final String[] quantileKeys = {"PromptTokens", "CompletionTokens", "LastSessionDuration"};
+
+    /**
+     * The quantiles reported of each statistic in {@link #quantileKeys}, named p50, p95 and p99
+     */
+    static final double[] quantileLevels = {0.5, 0.95, 0.99};
+
+    /**
+     * The number of sessions
+     */
+    long numSessions;
+
+    /**
+     * The sum of prompt tokens
+     */
+    long sumPromptTokens;
+
+    /**
+     * The sum of completion tokens
+     */
+    long sumCompletionTokens;
+
+    /**
+     * The sum of temperatures
+     */
+    double sumTemperature;
+
+    /**
+     * The sum of the time of day the sessions are created
+     */
+    long sumTimeCreated;
+
+    /**
+     * The sum of the time of day the sessions are last opened
+     */
+    long sumTimeLastOpen;
+
+    /**
+     * The sum of the time of day the sessions are last exited
+     */
+    long sumTimeLastExit;
+
+    /**
+     * The sum of the durations of the last sessions in minutes
+     */
+    long sumLastSessionDuration;
+
+    /**
+     * The sum of prices in USD
+     */
+    double sumPrice;
+
+    /**
+     * The max of the statistics in {@link #rangeKeys}
+     */
+    final long[] max = new long[rangeKeys.length];
+
+    /**
+     * The min of the statistics in {@link #rangeKeys}
+     */
+    final long[] min = new long[rangeKeys.length];
+
+    /**
+     * The histograms of the statistics in {@link #quantileKeys}
+     */
+    final QuantileHistogram[] quantiles = new QuantileHistogram[quantileKeys.length];
+
+    /**
+     * The counts of tags
+     */
+    final StringIntMap topTags = new StringIntMap();
+
+    /**
+     * The counts of models
+     */
+    final StringIntMap topModels = new StringIntMap();
+
+    /**
+     * The counts of words
+     */
+    final StringIntMap topWords = new StringIntMap();
+
+    /**
+     * The sketch of the top words in the approximate mode, which counts the words instead of topWords, or null
+     */
+    final SpaceSavingSketch wordSketch;
+
+    /**
+     * The distinct words in the approximate mode, where topWords does not hold all the words, or null
+     */
+    final HyperLogLog distinctWords;
+
+    /**
+     * The users active in each month, a map of month and users, for the admin statistics
+     */
+    final Map<String, HyperLogLog> activeUsers = new HashMap<>();
+
+    /**
+     * Constructor of ProfileAccumulator, the profile of no session
+     */
+    ProfileAccumulator() {
+        this(null);
+    }
+
+    /**
+     * Constructor of ProfileAccumulator, the profile of no session
+     *
+     * @param wordSketch the sketch counting the words in the approximate mode, or null to count them exactly
+     */
+    ProfileAccumulator(SpaceSavingSketch wordSketch) {
+        this.wordSketch = wordSketch;
+        this.distinctWords = wordSketch == null ? null : new HyperLogLog();
+        // the same initial values as the JSON profile, which end up in the profile of no session
+        Arrays.fill(max, Integer.MIN_VALUE);
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.setAll(quantiles, i -> new QuantileHistogram());
+    }
+
+    /**
+     * Add or subtract the sums of another profile
+     *
+     * @param other the other profile
+     * @param sign  1 to add or -1 to subtract
+     */
+    void addSums(ProfileAccumulator other, int sign) {
+        numSessions += sign * other.numSessions;
+        sumPromptTokens += sign * other.sumPromptTokens;
+        sumCompletionTokens += sign * other.sumCompletionTokens;
+        sumTemperature += sign * other.sumTemperature;
+        sumTimeCreated += sign * other.sumTimeCreated;
+        sumTimeLastOpen += sign * other.sumTimeLastOpen;
+        sumTimeLastExit += sign * other.sumTimeLastExit;
+        sumLastSessionDuration += sign * other.sumLastSessionDuration;
+        sumPrice += sign * other.sumPrice;
+    }
+
+    /**
+     * Add or subtract the counts of all the top strings and the histograms of another profile
+     *
+     * @param other the other profile
+     * @param sign  1 to add or -1 to subtract
+     */
+    void addCounts(ProfileAccumulator other, int sign) {
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i].addAll(other.quantiles[i], sign);
+        }
+        topTags.addAll(other.topTags, sign);
+        topModels.addAll(other.topModels, sign);
+        topWords.addAll(other.topWords, sign);
+    }
+
+    /**
+     * Convert the profile before post processing to JSON, the profile must be exact
+     *
+     * @return the JSON object
+     * @throws UnsupportedOperationException if the words are counted by a sketch
+     */
+    @Override
+    public JSONObject toJSON() {
+        if (wordSketch != null) {
+            throw new UnsupportedOperationException("An approximate profile cannot be converted to JSON");
+        }
+        JSONArray histograms = new JSONArray();
+        for (QuantileHistogram histogram : quantiles) {
+            histograms.put(histogram.toJSON());
+        }
+        JSONObject months = new JSONObject();
+        activeUsers.forEach((month, users) -> months.put(month, users.encode()));
+        return new JSONObject()
+                .put("numSessions", numSessions)
+                .put("sumPromptTokens", sumPromptTokens)
+                .put("sumCompletionTokens", sumCompletionTokens)
+                .put("sumTemperature", sumTemperature)
+                .put("sumTimeCreated", sumTimeCreated)
+                .put("sumTimeLastOpen", sumTimeLastOpen)
+                .put("sumTimeLastExit", sumTimeLastExit)
+                .put("sumLastSessionDuration", sumLastSessionDuration)
+                .put("sumPrice", sumPrice)
+                .put("max", new JSONArray(max))
+                .put("min", new JSONArray(min))
+                .put("quantiles", histograms)
+                .put("topTags", countsToJSON(topTags))
+                .put("topModels", countsToJSON(topModels))
+                .put("topWords", countsToJSON(topWords))
+                .put("activeUsers", months);
+    }
+
+    /**
+     * Convert the profile from JSON converted by {@link #toJSON}, called on the profile of no session
+     *
+     * @param jsonObject the JSON object
+     * @throws IllegalArgumentException if the users active in a month are malformed
+     */
+    @Override
+    public void fromJSON(JSONObject jsonObject) {
+        numSessions = jsonObject.getLong("numSessions");
+        sumPromptTokens = jsonObject.getLong("sumPromptTokens");
+        sumCompletionTokens = jsonObject.getLong("sumCompletionTokens");
+        sumTemperature = jsonObject.getDouble("sumTemperature");
+        sumTimeCreated = jsonObject.getLong("sumTimeCreated");
+        sumTimeLastOpen = jsonObject.getLong("sumTimeLastOpen");
+        sumTimeLastExit = jsonObject.getLong("sumTimeLastExit");
+        sumLastSessionDuration = jsonObject.getLong("sumLastSessionDuration");
+        sumPrice = jsonObject.getDouble("sumPrice");
+        for (int i = 0; i < rangeKeys.length; i++) {
+            max[i] = jsonObject.getJSONArray("max").getLong(i);
+            min[i] = jsonObject.getJSONArray("min").getLong(i);
+        }
+        for (int i = 0; i < quantileKeys.length; i++) {
+            quantiles[i].fromJSON(jsonObject.getJSONArray("quantiles").getJSONArray(i));
+        }
+        countsFromJSON(topTags, jsonObject.getJSONObject("topTags"));
+        countsFromJSON(topModels, jsonObject.getJSONObject("topModels"));
+        countsFromJSON(topWords, jsonObject.getJSONObject("topWords"));
+        JSONObject months = jsonObject.getJSONObject("activeUsers");
+        for (String month : months.keySet()) {
+            activeUsers.put(month, HyperLogLog.decode(months.getString(month)));
+        }
+    }
+
+    /**
+     * Convert all the counts of the top strings to JSON
+     *
+     * @param counts the counts of the strings
+     * @return a map of string and count
+     */
+    private static JSONObject countsToJSON(StringIntMap counts) {
+        JSONObject json = new JSONObject();
+        counts.forEach(json::put);
+        return json;
+    }
+
+    /**
+     * Add the counts of the top strings converted to JSON by {@link #countsToJSON}
+     *
+     * @param counts the counts of the strings to add to
+     * @param json   a map of string and count
+     */
+    private static void countsFromJSON(StringIntMap counts, JSONObject json) {
+        for (String key : json.keySet()) {
+            counts.add(key, json.getInt(key));
+        }
+    }
+}
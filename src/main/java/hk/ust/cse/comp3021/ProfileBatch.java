@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ProfileBatch class accumulates the profiles of many users in one pass over their sessions. A batch is filled by
+ * one thread, and the batches of the threads are combined afterwards. A batch converts to and from JSON before post
+ * processing, so the batches of other processes combine the same way.
+ */
+public class ProfileBatch implements Serializable {
+    /**
+     * The profiles of the users, a map of user and profile
+     */
+    private final Map<String, ProfileAccumulator> profiles = new HashMap<>();
+
+    /**
+     * Accumulate a session to the profile of its user
+     *
+     * @param user    the user of the session
+     * @param session the session
+     */
+    void accumulate(String user, JSONObject session) {
+        SessionManager.accumulateSessionToProfile(profiles.computeIfAbsent(user,
+                k -> SessionManager.createEmptyProfile()), user, session);
+    }
+
+    /**
+     * Combine another batch into this one
+     *
+     * @param other the other batch
+     * @return this batch
+     */
+    ProfileBatch combine(ProfileBatch other) {
+        other.profiles.forEach((user, profile) -> profiles.merge(user, profile, SessionManager::combineTwoProfiles));
+        return this;
+    }
+
+    /**
+     * Get the profile of the user before post processing
+     *
+     * @param user the user
+     * @return the profile, empty if the user has no session
+     */
+    ProfileAccumulator get(String user) {
+        return profiles.getOrDefault(user, SessionManager.createEmptyProfile());
+    }
+
+    /**
+     * Convert the batch to JSON
+     *
+     * @return the JSON object
+     */
+    @Override
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        profiles.forEach((user, profile) -> json.put(user, profile.toJSON()));
+        return new JSONObject().put("profiles", json);
+    }
+
+    /**
+     * Convert the batch from JSON converted by {@link #toJSON}, called on an empty batch
+     *
+     * @param jsonObject the JSON object
+     * @throws IllegalArgumentException if the users active in a month of a profile are malformed
+     */
+    @Override
+    public void fromJSON(JSONObject jsonObject) {
+        JSONObject json = jsonObject.getJSONObject("profiles");
+        for (String user : json.keySet()) {
+            ProfileAccumulator profile = SessionManager.createEmptyProfile();
+            profile.fromJSON(json.getJSONObject(user));
+            profiles.put(user, profile);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ProfileCache class keeps the generated profiles in memory and on disk, so that a profile is not generated again
+ * while the database is unchanged.
+ * <p>
+ * A profile is cached by user and mode with the tag of the database version it was generated at, see
+ * {@link DatabaseVersion#getTag}, and it is only returned for the same tag. As the version is bumped by every
+ * mutation, only the latest profile of a user and mode is worth keeping, so it replaces the older one.
+ * The profiles in memory are evicted in least recently used order once their size exceeds the capacity,
+ * the profiles on disk are one file per user and mode, and are read back on a miss in memory.
+ */
+public class ProfileCache {
+    /**
+     * A cached profile
+     */
+    private static class Entry {
+        /**
+         * The tag of the database version the profile is generated at
+         */
+        final String tag;
+
+        /**
+         * The profile
+         */
+        final JSONObject profile;
+
+        /**
+         * The estimated size of the profile in bytes
+         */
+        final long size;
+
+        /**
+         * Constructor of Entry
+         *
+         * @param tag     the tag of the database version
+         * @param profile the profile
+         * @param size    the estimated size of the profile in bytes
+         */
+        Entry(String tag, JSONObject profile, long size) {
+            this.tag = tag;
+            this.profile = profile;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The directory of the profiles on disk
+     */
+    private final Path dir;
+
+    /**
+     * The capacity of the profiles in memory in bytes
+     */
+    private final long capacity;
+
+    /**
+     * The profiles in memory in least recently used order, a map of user and mode and the profile
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the profiles in memory in bytes
+     */
+    private long size;
+
+    /**
+     * Constructor of ProfileCache
+     *
+     * @param dir      the directory of the profiles on disk
+     * @param capacity the capacity of the profiles in memory in bytes
+     */
+    ProfileCache(Path dir, long capacity) {
+        this.dir = dir;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the cached profile, from memory or else from disk
+     *
+     * @param user the user of the profile
+     * @param mode the mode the profile is generated in
+     * @param tag  the tag of the current database version
+     * @return the profile, which must not be mutated, or null if no profile is cached at the tag
+     */
+    synchronized JSONObject get(String user, String mode, String tag) {
+        String key = user + "-" + mode;
+        Entry entry = entries.get(key);
+        if (entry != null && entry.tag.equals(tag)) {
+            return entry.profile;
+        }
+        try {
+            String content = Files.readString(dir.resolve(key + ".json"));
+            JSONObject cached = new JSONObject(content);
+            if (!cached.getString("tag").equals(tag)) {
+                return null;
+            }
+            JSONObject profile = cached.getJSONObject("profile");
+            putInMemory(key, new Entry(tag, profile, 2L * content.length()));
+            return profile;
+        } catch (NoSuchFileException | InvalidPathException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            Utils.printlnError("Failed to read the cached profile of " + user + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Cache the profile in memory and on disk, replacing the profile cached for the user and mode
+     *
+     * @param user    the user of the profile
+     * @param mode    the mode the profile is generated in
+     * @param tag     the tag of the database version the profile is generated at
+     * @param profile the profile, which must not be mutated afterwards
+     */
+    synchronized void put(String user, String mode, String tag, JSONObject profile) {
+        String key = user + "-" + mode;
+        String content = new JSONObject().put("tag", tag).put("profile", profile).toString();
+        putInMemory(key, new Entry(tag, profile, 2L * content.length()));
+        try {
+            Files.createDirectories(dir);
+            SessionShards.writeAtomically(dir.resolve(key + ".json"), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | InvalidPathException e) {
+            Utils.printlnError("Failed to cache the profile of " + user + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Put an entry in memory, and evict the least recently used entries beyond the capacity
+     *
+     * @param key   the user and mode
+     * @param entry the entry
+     */
+    private void putInMemory(String key, Entry entry) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            size -= old.size;
+        }
+        if (entry.size > capacity) {
+            return;
+        }
+        entries.put(key, entry);
+        size += entry.size;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > capacity) {
+            size -= eldest.next().getValue().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Remove all the profiles in memory, the profiles on disk are kept as they are checked by their tags
+     */
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ProfileCalibration class finds how much work is worth a thread of its own in the auto profile mode.
+ * <p>
+ * The work of a profile is measured by the weight of its sessions, roughly their length in bytes
+ * (see {@link SessionStore#weigh}). A micro-benchmark measures the time to profile a unit of weight of a sample of
+ * the sessions in the store, both with their messages tokenized and with an up-to-date summary (see
+ * {@link SessionSummary}), and the fixed cost of a parallel task, i.e. forking it, creating its partial profile and
+ * combining it. A thread is worth the weight whose profiling time is {@link #overheadFactor} times that fixed cost,
+ * so that the overhead of a thread stays below a few percent of its work, where the time of a unit of weight is
+ * weighted by the share of the sessions with a summary. The benchmark runs once, on the first profile in the auto
+ * mode, on varied generated sessions if the store has none.
+ */
+public class ProfileCalibration {
+    /**
+     * The ratio of the work of a thread to the fixed cost of a parallel task
+     */
+    static final int overheadFactor = 20;
+
+    /**
+     * The weight worth a thread, from the env variable PROFILE_AUTO_THREAD_WEIGHT, calibrate to measure it
+     */
+    static final String threadWeightSetting = Optional.ofNullable(System.getenv("PROFILE_AUTO_THREAD_WEIGHT"))
+            .orElse("calibrate");
+
+    /**
+     * The number of sessions sampled from the store for the benchmark
+     */
+    static final int sampleSize = 64;
+
+    /**
+     * The number of sessions sampled from each user, so that the sample spans several users
+     */
+    static final int sampleSizePerUser = 8;
+
+    /**
+     * The number of sessions profiled to warm up the benchmark
+     */
+    static final int warmupRounds = 200;
+
+    /**
+     * The number of sessions profiled, and of tasks forked, by the benchmark
+     */
+    static final int benchmarkRounds = 500;
+
+    /**
+     * The time to profile a unit of weight of the sessions whose messages are tokenized, in nanoseconds
+     */
+    private final double nanosPerWeight;
+
+    /**
+     * The time to profile a unit of weight of the sessions with an up-to-date summary, in nanoseconds
+     */
+    private final double nanosPerSummarizedWeight;
+
+    /**
+     * The fixed cost of a parallel task, in nanoseconds
+     */
+    private final double nanosPerTask;
+
+    /**
+     * Constructor of ProfileCalibration, the result of the micro-benchmark
+     *
+     * @param nanosPerWeight           the time to profile a unit of weight of the sessions tokenized
+     * @param nanosPerSummarizedWeight the time to profile a unit of weight of the sessions with a summary
+     * @param nanosPerTask             the fixed cost of a parallel task
+     */
+    private ProfileCalibration(double nanosPerWeight, double nanosPerSummarizedWeight, double nanosPerTask) {
+        this.nanosPerWeight = nanosPerWeight;
+        this.nanosPerSummarizedWeight = nanosPerSummarizedWeight;
+        this.nanosPerTask = nanosPerTask;
+    }
+
+    /**
+     * Holder of the calibration, computed on first use
+     */
+    private static class Holder {
+        /**
+         * The weight worth a thread if set, or 0 to calibrate it
+         */
+        static final long threadWeight = parseThreadWeight();
+
+        /**
+         * The calibration, or null if the weight worth a thread is set
+         */
+        static final ProfileCalibration calibration = threadWeight > 0 ? null : calibrate();
+    }
+
+    /**
+     * Get the weight worth a thread, calibrating it on first use unless it is set
+     *
+     * @param summarizedShare the share of the weight of the sessions with a summary, from 0 to 1
+     * @return the weight worth a thread, at least 1
+     */
+    static long getThreadWeight(double summarizedShare) {
+        return Holder.calibration == null ? Holder.threadWeight : Holder.calibration.threadWeightOf(summarizedShare);
+    }
+
+    /**
+     * Get the calibrated weight worth a thread
+     *
+     * @param summarizedShare the share of the weight of the sessions with a summary, from 0 to 1
+     * @return the weight worth a thread, at least 1
+     */
+    private long threadWeightOf(double summarizedShare) {
+        double nanos = summarizedShare * nanosPerSummarizedWeight + (1 - summarizedShare) * nanosPerWeight;
+        return Math.max(1, Math.round(nanosPerTask * overheadFactor / nanos));
+    }
+
+    /**
+     * Parse the weight worth a thread from the setting
+     *
+     * @return the weight worth a thread, at least 1, or 0 to calibrate it
+     */
+    private static long parseThreadWeight() {
+        if (!threadWeightSetting.equals("calibrate")) {
+            try {
+                return Math.max(1, Long.parseLong(threadWeightSetting));
+            } catch (NumberFormatException e) {
+                Utils.printlnError("Unsupported auto thread weight: " + threadWeightSetting + ", calibrating instead");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Calibrate the auto profile mode by the micro-benchmark
+     *
+     * @return the calibration
+     */
+    private static ProfileCalibration calibrate() {
+        List<JSONObject> sessions = sampleSessions();
+        List<JSONObject> summarized = new ArrayList<>();
+        for (JSONObject session : sessions) {
+            summarized.add(SessionSummary.withSummary(session, SessionManager.ignoredWords));
+        }
+        // warm up both paths before measuring either, so that neither is measured before it is compiled
+        benchmarkProfile(sessions, warmupRounds);
+        benchmarkProfile(summarized, warmupRounds);
+        double nanosPerWeight = benchmarkProfile(sessions, benchmarkRounds);
+        double nanosPerSummarizedWeight = benchmarkProfile(summarized, benchmarkRounds);
+        if (nanosPerSummarizedWeight >= nanosPerWeight) {
+            // reading a summary skips the tokenizing, a measure saying otherwise is noise
+            Utils.printlnError(String.format("Calibrated %.1f ns per byte of summarized sessions, no less than "
+                    + "%.1f ns per byte of sessions, using the latter for both", nanosPerSummarizedWeight,
+                    nanosPerWeight));
+            nanosPerSummarizedWeight = nanosPerWeight;
+        }
+        for (int i = 0; i < warmupRounds; i++) {
+            forkTask();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < benchmarkRounds; i++) {
+            forkTask();
+        }
+        double nanosPerTask = (double) (System.nanoTime() - start) / benchmarkRounds;
+        ProfileCalibration calibration = new ProfileCalibration(nanosPerWeight, nanosPerSummarizedWeight,
+                nanosPerTask);
+        Utils.printlnInfo(String.format("Calibrated the auto profile mode on %d sessions: %.1f ns per byte of "
+                + "sessions, %.1f ns per byte of summarized sessions, %.0f ns per parallel task, a thread is worth "
+                + "%d to %d bytes", sessions.size(), nanosPerWeight, nanosPerSummarizedWeight, nanosPerTask,
+                calibration.threadWeightOf(0), calibration.threadWeightOf(1)));
+        return calibration;
+    }
+
+    /**
+     * Measure the time to profile the sessions, profiled in turn
+     *
+     * @param sessions the sessions
+     * @param rounds   the number of sessions to profile
+     * @return the time to profile a unit of weight, in nanoseconds
+     */
+    private static double benchmarkProfile(List<JSONObject> sessions, int rounds) {
+        // the user only counts in the active months, any name costs the same
+        String user = "calibration";
+        ProfileAccumulator profile = SessionManager.createEmptyProfile();
+        long weight = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JSONObject session = sessions.get(i % sessions.size());
+            SessionManager.accumulateSessionToProfile(profile, user, session);
+            weight += SessionStore.weigh(session);
+        }
+        return (double) (System.nanoTime() - start) / weight;
+    }
+
+    /**
+     * Sample the sessions in the store without their summaries, a few of each user loaded
+     *
+     * @return the sessions, generated ones if the store has none
+     */
+    private static List<JSONObject> sampleSessions() {
+        List<JSONObject> sample = new ArrayList<>();
+        for (String user : SessionManager.store.getUsers()) {
+            int numSampled = 0;
+            for (String sessionUID : SessionManager.store.getSessionUIDs(user)) {
+                if (sample.size() == sampleSize || numSampled == sampleSizePerUser) {
+                    break;
+                }
+                JSONObject session = SessionManager.store.get(user, sessionUID);
+                if (session != null) {
+                    // a shallow copy, the session in the store keeps its summary
+                    JSONObject plain = new JSONObject(session, session.keySet().toArray(new String[0]));
+                    plain.remove(SessionSummary.summaryKey);
+                    sample.add(plain);
+                    numSampled++;
+                }
+            }
+        }
+        return sample.isEmpty() ? generateSessions() : sample;
+    }
+
+    /**
+     * Fork a parallel task creating an empty partial profile, and combine it, the fixed cost of a parallel task
+     */
+    private static void forkTask() {
+        ProfileAccumulator partial = ForkJoinPool.commonPool().submit(SessionManager::createEmptyProfile).join();
+        SessionManager.combineTwoProfiles(SessionManager.createEmptyProfile(), partial);
+    }
+
+    /**
+     * Generate sessions of varied lengths and words for the benchmark, when the store has no session to sample
+     *
+     * @return the sessions
+     */
+    private static List<JSONObject> generateSessions() {
+        Random random = new Random(3021);
+        // a vocabulary drawn with a skew, so that a few words are frequent and most are rare as in real messages
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[2 + random.nextInt(9)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+        List<JSONObject> sessions = new ArrayList<>();
+        for (int i = 0; i < sampleSize; i++) {
+            JSONArray contents = new JSONArray();
+            for (int j = 2 + random.nextInt(9); j > 0; j--) {
+                StringBuilder content = new StringBuilder();
+                for (int k = 10 + random.nextInt(200); k > 0; k--) {
+                    content.append(vocabulary[(int) Math.pow(vocabulary.length, random.nextDouble()) - 1])
+                            .append(random.nextInt(10) == 0 ? ", " : " ");
+                }
+                contents.put(new JSONObject().put("role", j % 2 == 0 ? "user" : "assistant")
+                        .put("content", content.toString()));
+            }
+            sessions.add(new JSONObject()
+                    .put("timeCreated", 1700000000L + i * 86400L)
+                    .put("timeLastOpen", 1700003600L + i * 86400L)
+                    .put("timeLastExit", 1700007200L + i * 86400L)
+                    .put("totalPromptTokens", 64 + random.nextInt(1024))
+                    .put("totalCompletionTokens", 64 + random.nextInt(1024))
+                    .put("temperature", 0.7)
+                    .put("tags", new JSONArray().put("favorite"))
+                    .put("apiURL", "https://hkust.azure-api.net/openai/deployments/vicuna-13b/chat/completions")
+                    .put("messages", new JSONObject().put("contents", contents)));
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.BiPredicate;
+
+/**
+ * ProfilePipeline class profiles the sessions of the snapshots in a pipeline of {@link Flow} stages, so that
+ * reading, parsing and accumulating the sessions overlap.
+ * <p>
+ * The reading stage reads the chunks of session texts by {@link SnapshotReader}, and routes each chunk to one of the
+ * lanes, one per core, the one with the fewest chunks waiting, so the chunks are balanced over the lanes and each is
+ * delivered only once. A lane is made of a publisher of the chunks routed to it, a parsing stage, which publishes the
+ * parsed chunks, and an accumulating stage, which accumulates them into a {@link ProfileBatch}. The batches of the
+ * lanes are combined once the reading stage completes. Every publisher buffers at most {@link #bufferCapacity}
+ * chunks and blocks the stage before it when full, so the memory stays bounded and the pipeline runs at the pace of
+ * its slowest stage.
+ */
+public class ProfilePipeline {
+    /**
+     * The number of chunks a publisher buffers per subscriber
+     */
+    static final int bufferCapacity = 8;
+
+    /**
+     * The parsing stage of a lane, parses the chunks routed to the lane and publishes them to the accumulating stage
+     */
+    private static class ParseStage extends SubmissionPublisher<List<Map.Entry<String, JSONObject>>>
+            implements Flow.Processor<List<Map.Entry<String, String>>, List<Map.Entry<String, JSONObject>>> {
+        /**
+         * The subscription to the chunks routed to the lane
+         */
+        private Flow.Subscription subscription;
+
+        /**
+         * Constructor of ParseStage
+         *
+         * @param executor the executor delivering the parsed chunks
+         */
+        ParseStage(ExecutorService executor) {
+            super(executor, bufferCapacity);
+        }
+
+        /**
+         * Start receiving the chunks
+         *
+         * @param subscription the subscription to the chunks routed to the lane
+         */
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        /**
+         * Parse the chunk and publish it
+         *
+         * @param chunk the users and JSON texts of the sessions
+         */
+        @Override
+        public void onNext(List<Map.Entry<String, String>> chunk) {
+            try {
+                List<Map.Entry<String, JSONObject>> parsed = new ArrayList<>(chunk.size());
+                for (Map.Entry<String, String> session : chunk) {
+                    parsed.add(Map.entry(session.getKey(), new JSONObject(session.getValue())));
+                }
+                submit(parsed);
+            } catch (RuntimeException e) {
+                // stop this lane, the reading stage drops the chunks routed to it rather than waiting for it
+                subscription.cancel();
+                closeExceptionally(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        /**
+         * Pass the failure of the reading stage on
+         *
+         * @param throwable the failure
+         */
+        @Override
+        public void onError(Throwable throwable) {
+            closeExceptionally(throwable);
+        }
+
+        /**
+         * Complete the accumulating stage once the reading stage completes
+         */
+        @Override
+        public void onComplete() {
+            close();
+        }
+    }
+
+    /**
+     * The accumulating stage of a lane, accumulates the parsed chunks into a batch
+     */
+    private static class AccumulateStage implements Flow.Subscriber<List<Map.Entry<String, JSONObject>>> {
+        /**
+         * The batch accumulated, completed once the parsing stage completes
+         */
+        final CompletableFuture<ProfileBatch> result = new CompletableFuture<>();
+
+        /**
+         * The profiles accumulated so far
+         */
+        private final ProfileBatch batch = new ProfileBatch();
+
+        /**
+         * The subscription to the parsing stage
+         */
+        private Flow.Subscription subscription;
+
+        /**
+         * Start receiving the parsed chunks
+         *
+         * @param subscription the subscription to the parsing stage
+         */
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        /**
+         * Accumulate the sessions of the parsed chunk
+         *
+         * @param sessions the users and sessions
+         */
+        @Override
+        public void onNext(List<Map.Entry<String, JSONObject>> sessions) {
+            try {
+                sessions.forEach(session -> batch.accumulate(session.getKey(), session.getValue()));
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        /**
+         * Fail the batch with the failure of the parsing stage
+         *
+         * @param throwable the failure
+         */
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        /**
+         * Complete the batch
+         */
+        @Override
+        public void onComplete() {
+            result.complete(batch);
+        }
+    }
+
+    /**
+     * Get the lane with the fewest chunks waiting, starting from a lane so that the ties are spread over the lanes
+     *
+     * @param lanes the publishers of the chunks routed to the lanes
+     * @param start the lane to start from
+     * @return the publisher of the lane
+     */
+    private static SubmissionPublisher<List<Map.Entry<String, String>>> leastLagging(
+            List<SubmissionPublisher<List<Map.Entry<String, String>>>> lanes, int start) {
+        SubmissionPublisher<List<Map.Entry<String, String>>> least = lanes.get(start % lanes.size());
+        for (int i = 1; i < lanes.size(); i++) {
+            SubmissionPublisher<List<Map.Entry<String, String>>> lane = lanes.get((start + i) % lanes.size());
+            if (lane.estimateMaximumLag() < least.estimateMaximumLag()) {
+                least = lane;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Accumulate the sessions wanted in the snapshots through the pipeline
+     *
+     * @param snapshots the paths to the snapshots
+     * @param wanted    whether a session given its user and sessionUID is wanted
+     * @return the profiles accumulated
+     * @throws IOException          if a snapshot cannot be read
+     * @throws InterruptedException if interrupted while profiling
+     * @throws ExecutionException   if profiling a session fails
+     */
+    static ProfileBatch profile(Collection<Path> snapshots, BiPredicate<String, String> wanted)
+            throws IOException, InterruptedException, ExecutionException {
+        int numLanes = Runtime.getRuntime().availableProcessors();
+        // a thread for each stage of each lane, so that a stage blocked on a full buffer never starves the next one
+        ExecutorService executor = Executors.newFixedThreadPool(2 * numLanes);
+        try {
+            List<CompletableFuture<ProfileBatch>> results = new ArrayList<>();
+            List<SubmissionPublisher<List<Map.Entry<String, String>>>> lanes = new ArrayList<>();
+            for (int i = 0; i < numLanes; i++) {
+                SubmissionPublisher<List<Map.Entry<String, String>>> lane =
+                        new SubmissionPublisher<>(executor, bufferCapacity);
+                ParseStage parse = new ParseStage(executor);
+                AccumulateStage accumulate = new AccumulateStage();
+                parse.subscribe(accumulate);
+                lane.subscribe(parse);
+                lanes.add(lane);
+                results.add(accumulate.result);
+            }
+            int[] numChunks = {0};
+            try {
+                SnapshotReader.readChunks(snapshots, wanted, SessionManager.streamChunkSize,
+                        chunk -> leastLagging(lanes, numChunks[0]++).submit(chunk));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                // fail the lanes rather than completing them with a partial batch
+                lanes.forEach(lane -> lane.closeExceptionally(e));
+                throw e;
+            }
+            lanes.forEach(SubmissionPublisher::close);
+            ProfileBatch batch = new ProfileBatch();
+            for (CompletableFuture<ProfileBatch> result : results) {
+                batch.combine(result.get());
+            }
+            return batch;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The entry of a profile worker process started by the multiprocess profile mode, see
+ * {@link SessionManager#generateProfileMultiProcess}.
+ * <p>
+ * The users are split into shards by the hash of their names. A worker loads the database from the working
+ * directory, accumulates the sessions of the users of its shard into a {@link ProfileBatch}, and writes the batch
+ * before post processing as JSON to the output file. The worker is one of as many processes as cores, so it
+ * accumulates the sessions in a single thread, and only the sessions of its shard are parsed into its memory.
+ */
+public class ProfileWorker {
+    /**
+     * Get the shard of a user, the same in every process
+     *
+     * @param user      the user
+     * @param numShards the number of shards
+     * @return the shard, from 0 to numShards - 1
+     */
+    static int shardOf(String user, int numShards) {
+        return Math.floorMod(user.hashCode(), numShards);
+    }
+
+    /**
+     * Accumulate the profiles of the users of a shard
+     *
+     * @param user      the user to generate profile for, or admin for all the users
+     * @param shard     the shard
+     * @param numShards the number of shards
+     * @return the profiles of the users of the shard
+     */
+    static ProfileBatch profileShard(String user, int shard, int numShards) {
+        Collection<String> users = (user.equals("admin") ? SessionManager.getUsers() : List.of(user)).stream()
+                .filter(candidate -> shardOf(candidate, numShards) == shard)
+                .toList();
+        users.forEach(SessionManager::openShard);
+        ProfileBatch batch = new ProfileBatch();
+        SessionManager.store.spliterator(users)
+                .forEachRemainingWithUser(batch::accumulate);
+        return batch;
+    }
+
+    /**
+     * The main function, exits with 1 if the profiles cannot be generated
+     * @param args the user to generate profile for in Base64 of UTF-8, the shard, the number of shards and the path
+     *             to the output file
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length != 4) {
+                throw new IllegalArgumentException("Expected the user, shard, number of shards and output file");
+            }
+            SessionManager.loadDatabase();
+            SessionManager.reloadStopwords();
+            String user = new String(Base64.getDecoder().decode(args[0]), StandardCharsets.UTF_8);
+            ProfileBatch batch = profileShard(user, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            Files.writeString(Paths.get(args[3]), batch.toJSON().toString());
+        } catch (IOException | RuntimeException e) {
+            Utils.printlnError("Failed to profile the shard: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+
+import java.util.Arrays;
+
+/**
+ * QuantileHistogram class estimates the quantiles of non-negative values with log-bucketed counts, in the style of
+ * an HDR histogram.
+ * <p>
+ * The values below 2^subBucketBits have a bucket each. Above, every power of two range is split into
+ * 2^subBucketBits buckets of equal width, so a quantile is reported with a relative error below 2^-subBucketBits.
+ * The number of buckets grows with the log of the largest value only, and two histograms merge and subtract
+ * bucket by bucket. A histogram is not thread-safe.
+ */
+public class QuantileHistogram {
+    /**
+     * The number of bits of a value kept exactly, the relative error is below 2^-subBucketBits
+     */
+    static final int subBucketBits = 6;
+
+    /**
+     * The number of buckets per power of two
+     */
+    static final int subBucketCount = 1 << subBucketBits;
+
+    /**
+     * The counts of the buckets, only as many as the largest bucket counted
+     */
+    private long[] counts = new long[0];
+
+    /**
+     * The number of values counted
+     */
+    private long total;
+
+    /**
+     * Get the bucket of a value
+     *
+     * @param value the value, negatives count as 0
+     * @return the bucket
+     */
+    static int bucketOf(long value) {
+        if (value < subBucketCount) {
+            return (int) Math.max(value, 0);
+        }
+        // the position of the highest bit, and the next subBucketBits bits below it
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return (shift + 1) * subBucketCount + (int) (value >>> shift) - subBucketCount;
+    }
+
+    /**
+     * Get the highest value of a bucket
+     *
+     * @param bucket the bucket
+     * @return the highest value counted in the bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < subBucketCount) {
+            return bucket;
+        }
+        int shift = bucket / subBucketCount - 1;
+        long lowest = (long) (bucket % subBucketCount + subBucketCount) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Count a value once
+     *
+     * @param value the value
+     */
+    void add(long value) {
+        int bucket = bucketOf(value);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, bucket + 1);
+        }
+        counts[bucket]++;
+        total++;
+    }
+
+    /**
+     * Add or subtract all the counts of another histogram in place
+     *
+     * @param other the other histogram, never modified
+     * @param sign  1 to add or -1 to subtract
+     */
+    void addAll(QuantileHistogram other, int sign) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += sign * other.counts[i];
+        }
+        total += sign * other.total;
+    }
+
+    /**
+     * Convert the histogram to JSON
+     *
+     * @return the counts of the buckets
+     */
+    JSONArray toJSON() {
+        JSONArray json = new JSONArray();
+        for (long count : counts) {
+            json.put(count);
+        }
+        return json;
+    }
+
+    /**
+     * Add the counts of the buckets converted to JSON by {@link #toJSON}
+     *
+     * @param json the counts of the buckets
+     */
+    void fromJSON(JSONArray json) {
+        if (json.length() > counts.length) {
+            counts = Arrays.copyOf(counts, json.length());
+        }
+        for (int i = 0; i < json.length(); i++) {
+            counts[i] += json.getLong(i);
+            total += json.getLong(i);
+        }
+    }
+
+    /**
+     * Get the value at a quantile, the highest value of the bucket holding that rank
+     *
+     * @param quantile the quantile between 0 and 1, e.g. 0.95
+     * @return the value, 0 if no value is counted
+     */
+    long valueAt(double quantile) {
+        // the rank of the value, counted from 1
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * SessionCodec class converts the session database between the db.json layout and a compact binary encoding.
+ * <p>
+ * The binary encoding starts with the magic bytes "CMDB" and a version byte, followed by a dictionary of
+ * repeated strings and the encoded database. All the keys ("role", "content", "tokens", "apiURL", ...) and the
+ * repeated short strings (roles, client names, tags, ...) are written once in the dictionary and referred to
+ * by index. Numbers are zigzag varints, strings are varint length-prefixed UTF-8.
+ */
+public class SessionCodec {
+    /**
+     * The magic bytes at the start of a binary database
+     */
+    static final byte[] magic = {'C', 'M', 'D', 'B'};
+
+    /**
+     * The version of the binary encoding
+     */
+    static final int version = 1;
+
+    /**
+     * Only strings no longer than this are put into the dictionary
+     */
+    static final int maxDictStringLength = 256;
+
+    // the type tags of encoded values
+    private static final int tagNull = 0;
+    private static final int tagFalse = 1;
+    private static final int tagTrue = 2;
+    private static final int tagInt = 3;
+    private static final int tagDouble = 4;
+    private static final int tagDecimal = 5;
+    private static final int tagNumberText = 6;
+    private static final int tagString = 7;
+    private static final int tagStringRef = 8;
+    private static final int tagObject = 9;
+    private static final int tagArray = 10;
+
+    /**
+     * Check whether the file is a binary database
+     *
+     * @param path the path to the file
+     * @return true if the file starts with the magic bytes
+     */
+    static boolean isBinary(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return Arrays.equals(in.readNBytes(magic.length), magic);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a database from file of either format
+     *
+     * @param path the path to the file
+     * @return the database
+     * @throws IOException   if the file cannot be read
+     * @throws JSONException if the file is malformed
+     */
+    static JSONObject read(Path path) throws IOException, JSONException {
+        return isBinary(path) ? decode(Files.readAllBytes(path)) : new JSONObject(Files.readString(path));
+    }
+
+    /**
+     * Encode the database into the binary encoding
+     *
+     * @param db the database
+     * @return the encoded bytes
+     */
+    static byte[] encode(JSONObject db) {
+        // first pass: collect the dictionary, the strings repeated at least twice
+        Map<String, Integer> counts = new HashMap<>();
+        countStrings(db, counts);
+        List<String> dict = new ArrayList<>();
+        Map<String, Integer> dictIndex = new HashMap<>();
+        counts.forEach((str, count) -> {
+            if (count > 1) {
+                dictIndex.put(str, dict.size());
+                dict.add(str);
+            }
+        });
+        // second pass: write the header, the dictionary and the database
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(magic);
+        out.write(version);
+        writeVarint(out, dict.size());
+        for (String str : dict) {
+            writeString(out, str);
+        }
+        writeValue(out, db, dictIndex);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the database from the binary encoding
+     *
+     * @param bytes the encoded bytes
+     * @return the database
+     * @throws JSONException if the bytes are malformed or of an unsupported version
+     */
+    static JSONObject decode(byte[] bytes) throws JSONException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            byte[] header = new byte[magic.length];
+            in.get(header);
+            if (!Arrays.equals(header, magic)) {
+                throw new JSONException("Not a binary sessions database");
+            }
+            int fileVersion = in.get();
+            if (fileVersion != version) {
+                throw new JSONException("Unsupported binary sessions database version: " + fileVersion);
+            }
+            long dictSize = readVarint(in);
+            if (dictSize > in.remaining()) {
+                throw new JSONException("Malformed binary sessions database dictionary");
+            }
+            String[] dict = new String[(int) dictSize];
+            for (int i = 0; i < dict.length; i++) {
+                dict[i] = readString(in);
+            }
+            Object db = readValue(in, dict);
+            if (!(db instanceof JSONObject)) {
+                throw new JSONException("Malformed binary sessions database");
+            }
+            return (JSONObject) db;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new JSONException("Truncated binary sessions database");
+        }
+    }
+
+    /**
+     * Count the occurrence of the keys and short strings
+     *
+     * @param value  the value to count
+     * @param counts the counts, keys are always counted twice so that they are in the dictionary
+     */
+    private static void countStrings(Object value, Map<String, Integer> counts) {
+        if (value instanceof JSONObject object) {
+            for (String key : object.keySet()) {
+                counts.merge(key, 2, Integer::sum);
+                countStrings(object.get(key), counts);
+            }
+        } else if (value instanceof JSONArray array) {
+            for (Object item : array) {
+                countStrings(item, counts);
+            }
+        } else if (value instanceof String str && str.length() <= maxDictStringLength) {
+            counts.merge(str, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Write a value
+     *
+     * @param out       the output
+     * @param value     the value to write
+     * @param dictIndex the dictionary, a map of string and its index
+     */
+    private static void writeValue(ByteArrayOutputStream out, Object value, Map<String, Integer> dictIndex) {
+        if (value instanceof JSONObject object) {
+            out.write(tagObject);
+            writeVarint(out, object.length());
+            for (String key : object.keySet()) {
+                writeVarint(out, dictIndex.get(key));
+                writeValue(out, object.get(key), dictIndex);
+            }
+        } else if (value instanceof JSONArray array) {
+            out.write(tagArray);
+            writeVarint(out, array.length());
+            for (Object item : array) {
+                writeValue(out, item, dictIndex);
+            }
+        } else if (value instanceof String str) {
+            Integer index = dictIndex.get(str);
+            if (index != null) {
+                out.write(tagStringRef);
+                writeVarint(out, index);
+            } else {
+                out.write(tagString);
+                writeString(out, str);
+            }
+        } else if (value instanceof Boolean bool) {
+            out.write(bool ? tagTrue : tagFalse);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            out.write(tagInt);
+            writeVarint(out, zigzag(((Number) value).longValue()));
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(tagDouble);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int i = 0; i < Long.BYTES; i++) {
+                out.write((int) (bits >>> (8 * i)));
+            }
+        } else if (value instanceof BigDecimal decimal && decimal.unscaledValue().bitLength() < Long.SIZE) {
+            out.write(tagDecimal);
+            writeVarint(out, zigzag(decimal.unscaledValue().longValue()));
+            writeVarint(out, zigzag(decimal.scale()));
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            out.write(tagNumberText);
+            writeString(out, value.toString());
+        } else {
+            out.write(tagNull);
+        }
+    }
+
+    /**
+     * Read a value
+     *
+     * @param in   the input
+     * @param dict the dictionary
+     * @return the value
+     * @throws JSONException if the value is malformed
+     */
+    private static Object readValue(ByteBuffer in, String[] dict) throws JSONException {
+        int tag = in.get();
+        switch (tag) {
+            case tagObject -> {
+                long length = readVarint(in);
+                JSONObject object = new JSONObject();
+                for (long i = 0; i < length; i++) {
+                    String key = dict[(int) readVarint(in)];
+                    object.put(key, readValue(in, dict));
+                }
+                return object;
+            }
+            case tagArray -> {
+                long length = readVarint(in);
+                JSONArray array = new JSONArray();
+                for (long i = 0; i < length; i++) {
+                    array.put(readValue(in, dict));
+                }
+                return array;
+            }
+            case tagString -> {
+                return readString(in);
+            }
+            case tagStringRef -> {
+                return dict[(int) readVarint(in)];
+            }
+            case tagTrue -> {
+                return true;
+            }
+            case tagFalse -> {
+                return false;
+            }
+            case tagInt -> {
+                long number = unzigzag(readVarint(in));
+                return number == (int) number ? (Object) (int) number : (Object) number;
+            }
+            case tagDouble -> {
+                long bits = 0;
+                for (int i = 0; i < Long.BYTES; i++) {
+                    bits |= (in.get() & 0xFFL) << (8 * i);
+                }
+                return Double.longBitsToDouble(bits);
+            }
+            case tagDecimal -> {
+                long unscaled = unzigzag(readVarint(in));
+                return BigDecimal.valueOf(unscaled, (int) unzigzag(readVarint(in)));
+            }
+            case tagNumberText -> {
+                String text = readString(in);
+                return text.contains(".") || text.contains("E") ? new BigDecimal(text) : new BigInteger(text);
+            }
+            case tagNull -> {
+                return JSONObject.NULL;
+            }
+            default -> throw new JSONException("Unknown tag " + tag + " in binary sessions database");
+        }
+    }
+
+    /**
+     * Zigzag encode a signed number, so that small negative numbers are also short varints
+     *
+     * @param value the signed number
+     * @return the encoded number
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Zigzag decode a signed number
+     *
+     * @param value the encoded number
+     * @return the signed number
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte with the highest bit as continuation flag
+     *
+     * @param out   the output
+     * @param value the value to write
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read an unsigned varint
+     *
+     * @param in the input
+     * @return the value
+     * @throws JSONException if the varint is too long
+     */
+    private static long readVarint(ByteBuffer in) throws JSONException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new JSONException("Malformed varint in binary sessions database");
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string
+     *
+     * @param out the output
+     * @param str the string to write
+     */
+    private static void writeString(ByteArrayOutputStream out, String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string
+     *
+     * @param in the input
+     * @return the string
+     * @throws JSONException if the length is malformed
+     */
+    private static String readString(ByteBuffer in) throws JSONException {
+        int length = (int) readVarint(in);
+        String str = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return str;
+    }
+
+    /**
+     * Convert a database file between the db.json layout and the binary encoding, the direction is decided by
+     * the format of the input
+     *
+     * @param args the input path and the output path
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            Utils.printlnError("Usage: SessionCodec [input] [output]");
+            return;
+        }
+        try {
+            Path input = Paths.get(args[0]);
+            Path output = Paths.get(args[1]);
+            if (isBinary(input)) {
+                Files.writeString(output, decode(Files.readAllBytes(input)).toString(4));
+            } else {
+                Files.write(output, encode(new JSONObject(Files.readString(input))));
+            }
+            Utils.printlnInfo(String.format("Converted %s (%d bytes) to %s (%d bytes)", input, Files.size(input),
+                    output, Files.size(output)));
+        } catch (IOException | JSONException e) {
+            Utils.printlnError("Failed to convert the database: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SessionIndex class indexes a database snapshot of the db.json layout, {user: {sessionUID: session}}.
+ * The snapshot is scanned once by {@link SnapshotScanner} to record the byte offset and length of every session, and
+ * memory-mapped so that a session is only parsed when it is read. A mapping cannot exceed 2 GiB, so the snapshot is mapped in windows of
+ * 2^{@link #windowBits} bytes, and the few sessions crossing the end of a window are copied out of both.
+ */
+public class SessionIndex {
+    /**
+     * The number of bits of the size of a mapped window
+     */
+    static final int windowBits = 30;
+
+    /**
+     * The path to the snapshot
+     */
+    private final Path snapshot;
+
+    /**
+     * The number of bits of the size of a mapped window of this snapshot
+     */
+    private final int bits;
+
+    /**
+     * The memory-mapped windows of the snapshot, all full but the last
+     */
+    private final MappedByteBuffer[] windows;
+
+    /**
+     * The index, a map of user, sessionUID and {offset, length} of the session in the snapshot
+     */
+    private final Map<String, Map<String, long[]>> index = new LinkedHashMap<>();
+
+    /**
+     * Constructor of SessionIndex, map the snapshot and scan it
+     *
+     * @param snapshot the path to the snapshot
+     * @throws IOException   if the snapshot cannot be mapped
+     * @throws JSONException if the snapshot is malformed
+     */
+    SessionIndex(Path snapshot) throws IOException, JSONException {
+        this(snapshot, windowBits);
+    }
+
+    /**
+     * Constructor of SessionIndex, map the snapshot in windows of the given size and scan it
+     *
+     * @param snapshot the path to the snapshot
+     * @param bits     the number of bits of the size of a mapped window, at most 30
+     * @throws IOException   if the snapshot cannot be mapped
+     * @throws JSONException if the snapshot is malformed
+     */
+    SessionIndex(Path snapshot, int bits) throws IOException, JSONException {
+        this.snapshot = snapshot;
+        this.bits = bits;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowSize = 1L << bits;
+            windows = new MappedByteBuffer[(int) ((size + windowSize - 1) >>> bits)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << bits;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+            }
+        }
+        scan();
+    }
+
+    /**
+     * Get the path to the snapshot
+     *
+     * @return the path to the snapshot
+     */
+    Path getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the set of users in the snapshot
+     *
+     * @return the set of users
+     */
+    Set<String> getUsers() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Get the set of sessionUIDs of the user in the snapshot
+     *
+     * @param user the user
+     * @return the set of sessionUIDs, empty if the user is not in the snapshot
+     */
+    Set<String> getSessionUIDs(String user) {
+        return Collections.unmodifiableSet(index.getOrDefault(user, Map.of()).keySet());
+    }
+
+    /**
+     * Get the length of the session in bytes
+     *
+     * @param user       the user
+     * @param sessionUID the sessionUID
+     * @return the length of the session, 0 if the session is not in the snapshot
+     */
+    int getLength(String user, String sessionUID) {
+        long[] entry = index.getOrDefault(user, Map.of()).get(sessionUID);
+        return entry == null ? 0 : (int) entry[1];
+    }
+
+    /**
+     * Parse the session from the snapshot
+     *
+     * @param user       the user
+     * @param sessionUID the sessionUID
+     * @return the session, or null if the session is not in the snapshot
+     * @throws JSONException if the session is malformed
+     */
+    JSONObject read(String user, String sessionUID) throws JSONException {
+        long[] entry = index.getOrDefault(user, Map.of()).get(sessionUID);
+        if (entry == null) {
+            return null;
+        }
+        return new JSONObject(decode(entry[0], (int) entry[1]));
+    }
+
+    /**
+     * Decode the bytes of the snapshot as UTF-8
+     *
+     * @param start  the position of the first byte
+     * @param length the number of bytes
+     * @return the decoded string
+     */
+    private String decode(long start, int length) {
+        MappedByteBuffer window = windows[(int) (start >>> bits)];
+        int offset = (int) (start & ((1L << bits) - 1));
+        // absolute slices and gets do not move the position of the shared windows, so decoding is thread-safe
+        if (offset + length <= window.limit()) {
+            return StandardCharsets.UTF_8.decode(window.slice(offset, length)).toString();
+        }
+        byte[] bytes = new byte[length];
+        for (int copied = 0; copied < length; ) {
+            long pos = start + copied;
+            window = windows[(int) (pos >>> bits)];
+            offset = (int) (pos & ((1L << bits) - 1));
+            int n = Math.min(length - copied, window.limit() - offset);
+            window.get(offset, bytes, copied, n);
+            copied += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scan the snapshot and build the index, see {@link SnapshotScanner}
+     *
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the snapshot is malformed
+     */
+    private void scan() throws IOException, JSONException {
+        try (InputStream in = Files.newInputStream(snapshot)) {
+            new SnapshotScanner(in).scan((user, sessionUID) -> false, new SnapshotScanner.Visitor() {
+                @Override
+                public void acceptUser(String user) {
+                    index.computeIfAbsent(user, k -> new LinkedHashMap<>());
+                }
+
+                @Override
+                public void acceptSession(String user, String sessionUID, long offset, int length, String session) {
+                    index.get(user).put(sessionUID, new long[]{offset, length});
+                }
+            });
+        } catch (InterruptedException e) {
+            // the visitor above never waits
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionLog class provides a write-ahead log of session mutations on top of a database snapshot.
+ * Each line of the log is one compact JSON record, replaying the records in order on top of the
+ * snapshot restores the latest state of the database.
+ * <p>
+ * Appending a record only queues it, a single background writer thread commits all the queued records of a log
+ * with one write (group commit), and forces them to the disk according to the fsync policy. The future returned by
+ * appending completes once the record is committed, so a writer can wait for its record to be on the disk without
+ * holding back the records of the others.
+ * <p>
+ * A crash in the middle of an append leaves a torn line at the end of the log. The replay drops it, and the log is
+ * cut after its last newline before it is appended again, so the records appended after the crash are never hidden
+ * behind the torn line.
+ */
+public class SessionLog {
+    /**
+     * A record queued but not written yet
+     */
+    private static class Pending {
+        /**
+         * The line of the record in UTF-8
+         */
+        final byte[] line;
+
+        /**
+         * Completed once the record is written, and forced to the disk if the fsync policy is always
+         */
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        /**
+         * Constructor of Pending
+         *
+         * @param line the line of the record in UTF-8
+         */
+        Pending(byte[] line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * The fsync policy from the env variable WAL_FSYNC: "always" forces every group commit to the disk,
+     * "exit" only forces the log when it is flushed at exit, and a number N forces the log at most every N ms
+     */
+    static final String fsyncPolicy = Optional.ofNullable(System.getenv("WAL_FSYNC")).orElse("always");
+
+    /**
+     * The interval in ms between two forces of the log, 0 for every group commit and -1 for only at exit
+     */
+    static final long fsyncInterval = switch (fsyncPolicy) {
+        case "always" -> 0;
+        case "exit" -> -1;
+        default -> {
+            try {
+                yield Long.parseLong(fsyncPolicy);
+            } catch (NumberFormatException e) {
+                Utils.printlnError("Unsupported fsync policy: " + fsyncPolicy + ", using always as default");
+                yield 0;
+            }
+        }
+    };
+
+    /**
+     * The background writer thread shared by all the logs
+     */
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * All the logs appended to, flushed by the shutdown hook
+     */
+    private static final Set<SessionLog> openLogs = ConcurrentHashMap.newKeySet();
+
+    // force all the logs to the disk when the JVM exits
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SessionLog::flushAll));
+    }
+
+    /**
+     * The path to the log file
+     */
+    private final Path logPath;
+
+    /**
+     * The records queued but not written yet
+     */
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a group commit of the pending records is scheduled on the writer thread
+     */
+    private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+
+    /**
+     * The approximate size of the log in bytes, including the pending records
+     */
+    private final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * The channel to the log file, only accessed by the writer thread
+     */
+    private FileChannel channel;
+
+    /**
+     * Whether the written records are not forced to the disk yet, only accessed by the writer thread
+     */
+    private boolean unsynced;
+
+    /**
+     * The time of the last force in ms, only accessed by the writer thread
+     */
+    private long lastSync;
+
+    /**
+     * Constructor of SessionLog
+     *
+     * @param logPath the path to the log file
+     */
+    SessionLog(Path logPath) {
+        this.logPath = logPath;
+    }
+
+    /**
+     * Create a record of the mutation
+     *
+     * @param op         the mutation: init, set, addTags, removeTag or setDescription
+     * @param user       the user of the session
+     * @param sessionUID the sessionUID of the session, null for init
+     * @return the record, the caller puts the arguments of the mutation
+     */
+    static JSONObject record(String op, String user, String sessionUID) {
+        JSONObject record = new JSONObject().put("op", op).put("user", user);
+        if (sessionUID != null) {
+            record.put("sessionUID", sessionUID);
+        }
+        return record;
+    }
+
+    /**
+     * Create a record that sets a session of the user, or only creates the user if the session is null
+     *
+     * @param user       the user of the session
+     * @param sessionUID the sessionUID of the session
+     * @param session    the session to set
+     * @return the record
+     */
+    static JSONObject sessionRecord(String user, String sessionUID, JSONObject session) {
+        if (session == null) {
+            return record("init", user, null);
+        }
+        return record("set", user, sessionUID).put("session", session);
+    }
+
+    /**
+     * Apply a record to the database, loading the mutated session from the snapshot if it is not in the database
+     *
+     * @param db     the database to apply to
+     * @param record the record to apply
+     * @param index  the index of the snapshot to load the sessions not parsed yet from, or null
+     */
+    static void apply(JSONObject db, JSONObject record, SessionIndex index) {
+        String user = record.getString("user");
+        if (!db.has(user)) {
+            db.put(user, new JSONObject());
+        }
+        if (!record.has("sessionUID")) {
+            return;
+        }
+        JSONObject sessions = db.getJSONObject(user);
+        String sessionUID = record.getString("sessionUID");
+        JSONObject session = sessions.optJSONObject(sessionUID);
+        if (session == null && index != null) {
+            session = index.read(user, sessionUID);
+        }
+        sessions.put(sessionUID, applyToSession(session, record));
+    }
+
+    /**
+     * Apply a record to a session, which is also how the mutations are performed in memory.
+     * The session is not mutated, an updated copy is returned, so that readers holding the session are not affected.
+     *
+     * @param session the session to apply to, or null if the record sets a new session
+     * @param record  the record to apply
+     * @return the updated session
+     */
+    static JSONObject applyToSession(JSONObject session, JSONObject record) {
+        // records written before the mutations are logged have no op
+        String op = record.optString("op", record.has("session") ? "set" : "init");
+        if (op.equals("set")) {
+            return record.getJSONObject("session");
+        }
+        if (session == null) {
+            throw new JSONException("JSONObject[\"" + record.optString("sessionUID") + "\"] not found.");
+        }
+        // a shallow copy, the values replaced below are copied as well
+        JSONObject updated = new JSONObject(session, session.keySet().toArray(new String[0]));
+        switch (op) {
+            case "addTags" -> {
+                JSONArray tags = new JSONArray(session.getJSONArray("tags"));
+                record.getJSONArray("tags").forEach(tags::put);
+                updated.put("tags", tags);
+            }
+            case "removeTag" -> {
+                JSONArray tags = new JSONArray(session.getJSONArray("tags"));
+                for (int i = 0; i < tags.length(); i++) {
+                    if (tags.getString(i).equals(record.getString("tag"))) {
+                        tags.remove(i);
+                        break;
+                    }
+                }
+                updated.put("tags", tags);
+            }
+            case "setDescription" -> updated.put("description", record.getString("description"));
+            default -> throw new JSONException("Unknown session log record: " + op);
+        }
+        return updated;
+    }
+
+    /**
+     * Get the approximate size of the log in bytes, including the records not written yet
+     *
+     * @return the size of the log, 0 if the log does not exist
+     */
+    long size() {
+        if (size.get() < 0) {
+            try {
+                size.compareAndSet(-1, Files.exists(logPath) ? Files.size(logPath) : 0);
+            } catch (IOException e) {
+                size.compareAndSet(-1, 0);
+            }
+        }
+        return size.get();
+    }
+
+    /**
+     * Append a record to the end of the log, the record is committed by the writer thread in the background
+     *
+     * @param record the record to append
+     * @return the future completed once the record is committed, or failed if it cannot be written
+     */
+    CompletableFuture<Void> append(JSONObject record) {
+        Pending line = new Pending((record.toString() + '\n').getBytes(StandardCharsets.UTF_8));
+        size();
+        size.addAndGet(line.line.length);
+        pending.add(line);
+        if (commitScheduled.compareAndSet(false, true)) {
+            openLogs.add(this);
+            writer.execute(this::groupCommit);
+        }
+        return line.committed;
+    }
+
+    /**
+     * Wait for a record to be committed if the fsync policy is always, so that the mutation is on the disk once it
+     * returns. The other policies trade the durability of the last records for not waiting.
+     * The failure of the commit is already reported by the writer thread.
+     *
+     * @param committed the future returned by appending the record
+     */
+    static void awaitCommit(CompletableFuture<Void> committed) {
+        if (fsyncInterval != 0) {
+            return;
+        }
+        try {
+            committed.get();
+        } catch (ExecutionException ignored) {
+            // reported by the writer thread
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write all the pending records with one write, and force them to the disk according to the fsync policy.
+     * Only run on the writer thread.
+     */
+    private void groupCommit() {
+        // reset before draining, so that a record queued during the commit schedules another commit
+        commitScheduled.set(false);
+        List<Pending> lines = new ArrayList<>();
+        int length = 0;
+        for (Pending line = pending.poll(); line != null; line = pending.poll()) {
+            lines.add(line);
+            length += line.line.length;
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                truncateTornTail();
+                channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            lines.forEach(line -> buffer.put(line.line));
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unsynced = true;
+            long now = System.currentTimeMillis();
+            if (fsyncInterval == 0 || (fsyncInterval > 0 && now - lastSync >= fsyncInterval)) {
+                sync();
+            } else if (fsyncInterval > 0) {
+                writer.schedule(this::syncQuietly, fsyncInterval, TimeUnit.MILLISECONDS);
+            }
+            lines.forEach(line -> line.committed.complete(null));
+        } catch (IOException e) {
+            Utils.printlnError("Failed to write the session log: " + e.getMessage());
+            lines.forEach(line -> line.committed.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Cut off the torn tail of an interrupted append, i.e. the bytes after the last newline of the log, so that the
+     * records appended next start on a line of their own. Only run on the writer thread before opening the log.
+     *
+     * @throws IOException if the log cannot be read or truncated
+     */
+    private void truncateTornTail() throws IOException {
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        try (FileChannel file = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = file.size();
+            long complete = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            // scan backwards for the last newline, the tail is at most one record
+            for (long pos = end; pos > 0 && complete == 0; pos -= buffer.capacity()) {
+                long start = Math.max(0, pos - buffer.capacity());
+                buffer.clear().limit((int) (pos - start));
+                // read until the chunk is full
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        complete = start + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (complete < end) {
+                file.truncate(complete);
+                file.force(false);
+                size.addAndGet(complete - end);
+                Utils.printlnError("Dropped " + (end - complete) + " bytes of an interrupted append to " + logPath);
+            }
+        }
+    }
+
+    /**
+     * Force the written records to the disk. Only run on the writer thread.
+     *
+     * @throws IOException if the log cannot be forced
+     */
+    private void sync() throws IOException {
+        if (channel != null && unsynced) {
+            channel.force(false);
+            unsynced = false;
+            lastSync = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Force the written records to the disk, reporting the error. Only run on the writer thread.
+     */
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            Utils.printlnError("Failed to sync the session log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a task on the writer thread and wait for it, so that it is ordered after all the queued commits
+     *
+     * @param task the task to run
+     * @throws IOException if the task fails
+     */
+    private void runOnWriter(Callable<Void> task) throws IOException {
+        try {
+            writer.submit(task).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Commit all the pending records and force them to the disk regardless of the fsync policy
+     *
+     * @throws IOException if the log cannot be written
+     */
+    void flush() throws IOException {
+        runOnWriter(() -> {
+            groupCommit();
+            sync();
+            return null;
+        });
+    }
+
+    /**
+     * Flush all the logs appended to, called at exit
+     */
+    static void flushAll() {
+        for (SessionLog log : openLogs) {
+            try {
+                log.flush();
+            } catch (IOException e) {
+                Utils.printlnError("Failed to flush the session log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replay all the records in the log on top of the database.
+     * A last line without a newline is the torn tail of an interrupted append and is dropped. A malformed line
+     * before it, or a record that cannot be applied, is reported and skipped, so the records after it still apply.
+     *
+     * @param db the database to replay on
+     * @return the number of records replayed
+     */
+    int replay(JSONObject db) {
+        return replay(db, null);
+    }
+
+    /**
+     * Replay all the records in the log on top of the database, loading the mutated sessions from the snapshot
+     *
+     * @param db    the database to replay on
+     * @param index the index of the snapshot, or null if the database holds all the sessions
+     * @return the number of records replayed
+     */
+    int replay(JSONObject db, SessionIndex index) {
+        if (!Files.exists(logPath)) {
+            return 0;
+        }
+        int replayed = 0;
+        int lineNumber = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        try (InputStream in = Files.newInputStream(logPath)) {
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                int from = 0;
+                for (int i = 0; i < n; i++) {
+                    if (chunk[i] != '\n') {
+                        continue;
+                    }
+                    line.write(chunk, from, i - from);
+                    from = i + 1;
+                    lineNumber++;
+                    if (replayLine(db, line.toString(StandardCharsets.UTF_8), lineNumber, index)) {
+                        replayed++;
+                    }
+                    line.reset();
+                }
+                line.write(chunk, from, n - from);
+            }
+        } catch (IOException e) {
+            Utils.printlnError("Failed to replay the session log: " + e.getMessage());
+            return replayed;
+        }
+        if (line.size() > 0) {
+            Utils.printlnError("Dropped the torn tail of an interrupted append to the session log " + logPath);
+        }
+        return replayed;
+    }
+
+    /**
+     * Replay a complete line of the log
+     *
+     * @param db         the database to replay on
+     * @param line       the line
+     * @param lineNumber the number of the line in the log, from 1
+     * @param index      the index of the snapshot, or null if the database holds all the sessions
+     * @return true if a record is applied
+     */
+    private boolean replayLine(JSONObject db, String line, int lineNumber, SessionIndex index) {
+        if (line.isBlank()) {
+            return false;
+        }
+        JSONObject record;
+        try {
+            record = new JSONObject(line);
+        } catch (JSONException e) {
+            Utils.printlnError("Skipped the malformed line " + lineNumber + " of the session log " + logPath + ": "
+                    + e.getMessage());
+            return false;
+        }
+        try {
+            apply(db, record, index);
+            return true;
+        } catch (JSONException e) {
+            Utils.printlnError("Failed to apply the record on line " + lineNumber + " of the session log " + logPath
+                    + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Remove all the records in the log, called after the records are checkpointed into the snapshot.
+     * The records appended before are dropped even if they are not written yet.
+     *
+     * @throws IOException if the log cannot be removed
+     */
+    void clear() throws IOException {
+        runOnWriter(() -> {
+            // the records dropped are in the snapshot, which is as durable as the log
+            for (Pending line = pending.poll(); line != null; line = pending.poll()) {
+                line.committed.complete(null);
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                openLogs.remove(this);
+            }
+            unsynced = false;
+            Files.deleteIfExists(logPath);
+            size.set(0);
+            return null;
+        });
+    }
+}
@@ -6,26 +6,34 @@
 
 package hk.ust.cse.comp3021;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * SessionManager class provides read/write interface for session database
  */
 public class SessionManager {
     /**
-     * The session database in memory as a JSONObject
+     * The session database in memory, safe for concurrent readers and writers
      */
-    static JSONObject db;
+    static final SessionStore store = new SessionStore();
 
     /**
      * The path to the session database file
@@ -33,54 +41,286 @@ public class SessionManager {
     static final String dbPath = "db.json";
 
     /**
-     * Load session database from file into memory, create an empty database if not exist
+     * The path to the session database file in the binary encoding of {@link SessionCodec}, preferred over db.json
+     */
+    static final String binDbPath = "db.bin";
+
+    /**
+     * The format of the snapshots written when saving the database, json or binary
+     */
+    static final String dbFormat = Optional.ofNullable(System.getenv("DB_FORMAT")).orElse("json");
+
+    /**
+     * The path to the write-ahead log of session mutations since the db.json snapshot
+     */
+    static final String logPath = "db.log";
+
+    /**
+     * The write-ahead log of session mutations since the db.json snapshot, until it is migrated to shards
+     */
+    static final SessionLog sessionLog = new SessionLog(Paths.get(logPath));
+
+    /**
+     * The path to the directory of the database sharded by user
+     */
+    static final String shardDir = "shards";
+
+    /**
+     * The database sharded by user, the shard of a user is opened on demand
+     */
+    static final SessionShards shards = new SessionShards(Paths.get(shardDir), dbFormat.equals("binary"));
+
+    /**
+     * Whether the database in memory is backed by the shards, or by the unsharded db.json to be migrated
+     */
+    static volatile boolean sharded;
+
+    /**
+     * Checkpoint a log into a new snapshot once the log exceeds this ratio of the snapshot size
+     */
+    static final double logCompactRatio = 0.5;
+
+    /**
+     * The path to the file persisting the version of the database
+     */
+    static final String versionPath = "db.version";
+
+    /**
+     * The version of the database, bumped by every mutation
+     */
+    static final DatabaseVersion dbVersion = new DatabaseVersion(Paths.get(versionPath));
+
+    /**
+     * Load session database into memory.
+     * For the sharded database only the manifest is loaded, and the shard of each user is opened on demand.
+     * Otherwise, db.bin is decoded or db.json is indexed, and the logged session changes are replayed on top of it,
+     * an empty database is created if not exist. A session in a JSON snapshot is only parsed when it is accessed.
      */
     static void loadDatabase() {
+        store.clear();
+        materializedProfiles.clear();
+        profileCache.clear();
+        dbVersion.load();
+        if (shards.exists()) {
+            try {
+                shards.loadManifest();
+                sharded = true;
+                Utils.printlnInfo("Sessions database manifest loaded");
+                return;
+            } catch (IOException | JSONException e) {
+                Utils.printlnError("Failed to load the database manifest: " + e.getMessage());
+            }
+        }
+        sharded = false;
+        JSONObject db = new JSONObject();
+        SessionIndex index = null;
         try {
-            Path filePath = Paths.get(dbPath);
-            db = new JSONObject(Files.readString(filePath));
+            if (Files.exists(Paths.get(binDbPath))) {
+                db = SessionCodec.decode(Files.readAllBytes(Paths.get(binDbPath)));
+            } else {
+                index = new SessionIndex(Paths.get(dbPath));
+                for (String user : index.getUsers()) {
+                    db.put(user, new JSONObject());
+                }
+            }
             Utils.printlnInfo("Sessions database loaded");
         } catch (IOException | JSONException e) {
             Utils.printlnError("Failed to load the database: " + e.getMessage());
-            db = new JSONObject();
             Utils.printlnInfo("Empty sessions database created");
         }
+        int replayed = sessionLog.replay(db, index);
+        if (replayed > 0) {
+            Utils.printlnInfo(replayed + " logged session mutations replayed");
+        }
+        store.putAll(db, index);
+    }
+
+    /**
+     * Load session database into memory and open the shard of the user
+     *
+     * @param user the user to open shard for
+     */
+    static void loadDatabase(String user) {
+        loadDatabase();
+        openShard(user);
+    }
+
+    /**
+     * Open the shard of the user if it is not in memory yet
+     *
+     * @param user the user to open shard for
+     */
+    static void openShard(String user) {
+        if (!sharded || store.hasUser(user) || !shards.has(user)) {
+            return;
+        }
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
+        try {
+            if (!store.hasUser(user)) {
+                shards.openShard(user, store);
+            }
+        } catch (IOException | JSONException e) {
+            Utils.printlnError("Failed to load the shard of " + user + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Save session database from memory to file
+     * Save session database from memory to file.
+     * Every mutation is already in the write-ahead logs, so saving only forces the logs to the disk and checkpoints
+     * the logs grown too large into the snapshots. If the database was loaded from the unsharded db.json,
+     * every user is migrated to its own shard.
      */
     static void saveDatabase() {
         try {
-            Path filePath = Paths.get(dbPath);
-            Files.writeString(filePath, db.toString(4));
+            Set<String> users = store.getUsers();
+            if (sharded) {
+                for (String user : users) {
+                    checkpoint(user, false);
+                }
+                SessionLog.flushAll();
+            } else {
+                // no mutation may be appended to db.log between writing the shards and clearing it
+                List<ReentrantLock> locks = store.locks();
+                locks.forEach(ReentrantLock::lock);
+                try {
+                    users = store.getUsers();
+                    users.forEach(shards::allocate);
+                    for (String user : users) {
+                        checkpoint(user, true);
+                    }
+                    // the manifest commits the migration, the logged mutations of db.json now live in the shards
+                    shards.saveManifest();
+                    sessionLog.clear();
+                    sharded = true;
+                } finally {
+                    locks.forEach(ReentrantLock::unlock);
+                }
+                Utils.printlnInfo("Sessions database migrated to per-user shards in " + shardDir);
+            }
+            dbVersion.save();
             Utils.printlnInfo("Sessions database saved");
         } catch (IOException e) {
             Utils.printlnError("Fail to save sessions database");
         }
     }
 
+    /**
+     * Checkpoint the shard log of the user into the snapshot, holding the lock of the user so that
+     * no mutation is appended between writing the snapshot and clearing the log.
+     * The sessions without an up-to-date summary are summarized into the snapshot, see {@link #summarizeSessions}.
+     *
+     * @param user  the user
+     * @param force whether to checkpoint even if the log is small
+     * @throws IOException if the shard cannot be written
+     */
+    static void checkpoint(String user, boolean force) throws IOException {
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
+        try {
+            shards.checkpoint(user, () -> {
+                // the snapshot indexed is replaced, or deleted if the new one is binary
+                store.parseAll(user);
+                summarizeSessions(user);
+                return store.toJSON(user);
+            }, logCompactRatio, force);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Summarize the sessions of the user without an up-to-date summary, such as the ones loaded from a database
+     * written before the summaries, summarized with other stopwords or edited outside the program, holding the lock
+     * of the user. Every character is checked here, so that profiling only checks the stamp of a summary. Done when
+     * writing the snapshot, which holds the summaries, so they are not logged. Profiling only reads the store and
+     * tokenizes these sessions until then.
+     *
+     * @param user the user
+     */
+    static void summarizeSessions(String user) {
+        openShard(user);
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
+        try {
+            for (String sessionUID : store.getSessionUIDs(user)) {
+                JSONObject session = store.get(user, sessionUID);
+                if (session != null && !SessionSummary.isUpToDate(session, ignoredWords)) {
+                    // the words are the same, so the materialized profiles and the cached profiles stay valid
+                    store.put(user, sessionUID, SessionSummary.withSummary(session, ignoredWords));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append the mutation to the write-ahead log of the user, and checkpoint the log once it grows too large.
+     * Called with the lock of the user held, so that the log is in the same order as the memory.
+     * The caller waits for the commit with {@link SessionLog#awaitCommit} after releasing the lock, so that the
+     * mutations of the other sessions join the same group commit.
+     *
+     * @param user   the user of the mutation
+     * @param record the record of the mutation
+     * @return the future completed once the record is committed
+     */
+    static CompletableFuture<Void> logMutation(String user, JSONObject record) {
+        if (!sharded) {
+            return sessionLog.append(record);
+        }
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        try {
+            committed = shards.getLog(user).append(record);
+            checkpoint(user, false);
+        } catch (IOException e) {
+            Utils.printlnError("Failed to log the mutation: " + e.getMessage());
+        }
+        return committed;
+    }
+
     /**
      * Initialize sessions for current user
      *
      * @param user the user
      */
     static void initSessions(String user) {
-        if (!db.has(user)) {
-            db.put(user, new JSONObject());
+        openShard(user);
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
+        try {
+            if (store.addUser(user)) {
+                committed = logMutation(user, SessionLog.sessionRecord(user, null, null));
+                dbVersion.bump();
+            }
+        } finally {
+            lock.unlock();
         }
+        SessionLog.awaitCommit(committed);
     }
 
     /**
-     * Get the session given the user and sessionUID
+     * Get the session given the user and sessionUID.
+     * The session is shared with the other readers and must not be mutated, use {@link #updateSession} instead.
      *
      * @param user       the user to get session for
      * @param sessionUID the sessionUID to get
      * @return the session
      */
     static JSONObject getSession(String user, String sessionUID) {
+        openShard(user);
         try {
-            return db.getJSONObject(user).getJSONObject(sessionUID);
+            if (!store.hasUser(user)) {
+                throw new JSONException("JSONObject[\"" + user + "\"] not found.");
+            }
+            JSONObject session = store.get(user, sessionUID);
+            if (session == null) {
+                throw new JSONException("JSONObject[\"" + sessionUID + "\"] not found.");
+            }
+            return session;
         } catch (JSONException e) {
             Utils.printlnError("Failed to get the session: " + e.getMessage());
         }
@@ -88,36 +328,117 @@ public class SessionManager {
     }
 
     /**
-     * Save a session to the session database
+     * Get the sessionUIDs of the user, including the sessions not parsed yet
+     *
+     * @param user the user to get sessionUIDs for
+     * @return the set of sessionUIDs
+     */
+    static Set<String> getSessionUIDs(String user) {
+        openShard(user);
+        return store.getSessionUIDs(user);
+    }
+
+    /**
+     * Get all the sessions of the user, parsing all the sessions not parsed yet
+     *
+     * @param user the user to get sessions for
+     * @return a copy of the sessions, a map of sessionUID and session
+     */
+    static JSONObject getAllSessions(String user) {
+        openShard(user);
+        return store.toJSON(user);
+    }
+
+    /**
+     * Save a session to the session database, with the summary of its words for profiling, see
+     * {@link SessionSummary}
      *
      * @param user    the user to save session for
-     * @param session the session to save
+     * @param session the session to save, which must not be mutated afterwards
      */
     static void setSession(String user, String sessionUID, JSONObject session) {
+        // summarize outside the lock, the writers of the user only wait for the store and the log
+        session = SessionSummary.withSummary(session, ignoredWords);
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
         try {
-            db.getJSONObject(user).put(sessionUID, session);
+            if (!store.hasUser(user)) {
+                throw new JSONException("JSONObject[\"" + user + "\"] not found.");
+            }
+            JSONObject oldSession = materializedProfiles.isEmpty() ? null : store.get(user, sessionUID);
+            store.put(user, sessionUID, session);
+            committed = logMutation(user, SessionLog.sessionRecord(user, sessionUID, session));
+            dbVersion.bump();
+            updateMaterializedProfiles(user, oldSession, session);
         } catch (JSONException e) {
             Utils.printlnError("Failed to save the session: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        SessionLog.awaitCommit(committed);
+    }
+
+    /**
+     * Mutate a session in the session database by a record, see {@link SessionLog#applyToSession}.
+     * The session is replaced by an updated copy, so that the readers holding the session are not affected.
+     *
+     * @param user   the user of the session
+     * @param record the record of the mutation
+     */
+    static void updateSession(String user, JSONObject record) {
+        openShard(user);
+        CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+        ReentrantLock lock = store.lock(user);
+        lock.lock();
+        try {
+            String sessionUID = record.getString("sessionUID");
+            JSONObject oldSession = store.get(user, sessionUID);
+            JSONObject session = SessionLog.applyToSession(oldSession, record);
+            store.put(user, sessionUID, session);
+            committed = logMutation(user, record);
+            dbVersion.bump();
+            updateMaterializedProfiles(user, oldSession, session);
+        } catch (JSONException e) {
+            Utils.printlnError("Failed to update the session: " + e.getMessage());
+        } finally {
+            lock.unlock();
         }
+        SessionLog.awaitCommit(committed);
     }
 
     /**
-     * Get all the sessions of the user as stream
+     * Get all the sessions of the user as stream, the sessions are walked in the store without copying
+     * and the stream splits evenly by session in parallel, even for admin spanning all users
      *
      * @param user the user to get sessions for
      * @return the sessions
      */
     static Stream<JSONObject> getSessionsStream(String user) {
-        if (Objects.equals(user, "admin"))
-            return db.toMap()
-                    .keySet()
-                    .stream()
-                    .flatMap(SessionManager::getSessionsStream);
-        else
-            return db.getJSONObject(user).toMap()
-                    .keySet()
-                    .stream()
-                    .map(uid -> getSession(user, uid));
+        return StreamSupport.stream(getSessionsSpliterator(user), false);
+    }
+
+    /**
+     * Get all the sessions of the user with their users as stream, split in the same way as
+     * {@link #getSessionsStream}
+     *
+     * @param user the user to get sessions for, or admin for all users
+     * @return the users and sessions
+     */
+    static Stream<Map.Entry<String, JSONObject>> getSessionsWithUsersStream(String user) {
+        return StreamSupport.stream(getSessionsSpliterator(user).withUsers(), false);
+    }
+
+    /**
+     * Get a spliterator walking all the sessions of the user in the store, see {@link SessionSpliterator}
+     *
+     * @param user the user to get sessions for, or admin for all users
+     * @return the spliterator of the sessions
+     */
+    static SessionSpliterator getSessionsSpliterator(String user) {
+        Collection<String> users = Objects.equals(user, "admin") ? getUsers() : List.of(user);
+        users.forEach(SessionManager::openShard);
+        return store.spliterator(users);
     }
 
     /**
@@ -146,7 +467,7 @@ public class SessionManager {
      * @param user the user to list sessions for
      */
     public static void listSessions(String user) {
-        db.getJSONObject(user).keySet()
+        getSessionUIDs(user)
                 .forEach((key) -> printSession(key, Objects.requireNonNull(getSession(user, key))));
     }
 
@@ -156,7 +477,7 @@ public class SessionManager {
      * @return the number of users
      */
     public static int getNumUsers() {
-        return db.toMap().size();
+        return getUsers().size();
     }
 
     /**
@@ -165,21 +486,59 @@ public class SessionManager {
      * @return the set of users
      */
     public static Set<String> getUsers() {
-        return db.toMap().keySet();
+        Set<String> users = new LinkedHashSet<>(store.getUsers());
+        if (sharded) {
+            users.addAll(shards.getUsers());
+        }
+        return users;
     }
 
     /**
-     * The list of ignored words when counting top words
+     * The path to the stopwords file
      */
-    static List<String> ignoredWords;
+    static final Path stopwordsPath = Paths.get("stopwords.txt");
+
+    /**
+     * The set of ignored words when counting top words, replaced as a whole when the stopwords file changes
+     */
+    static volatile StopwordSet ignoredWords;
 
     // Load the stopwords from the file stopwords.txt, remember to filter out comments
     static {
         try {
-            ignoredWords = Files.readAllLines(Paths.get("stopwords.txt"));
+            ignoredWords = StopwordSet.load(stopwordsPath);
         } catch (IOException e) {
             Utils.printlnError("Failed to load stopwords: " + e.getMessage());
-            ignoredWords = new ArrayList<>();
+            ignoredWords = StopwordSet.of(List.of());
+        }
+    }
+
+    /**
+     * Reload the stopwords if the stopwords file has been modified since they are loaded.
+     * The materialized profiles counted the words with the old stopwords, so they are dropped with the writers
+     * of all users waiting, and materialized again on request.
+     *
+     * @return true if the stopwords are reloaded
+     */
+    static boolean reloadStopwords() {
+        if (!ignoredWords.isStale(stopwordsPath)) {
+            return false;
+        }
+        List<ReentrantLock> locks = store.locks();
+        locks.forEach(ReentrantLock::lock);
+        try {
+            if (!ignoredWords.isStale(stopwordsPath)) {
+                return false;
+            }
+            ignoredWords = StopwordSet.load(stopwordsPath);
+            materializedProfiles.clear();
+            Utils.printlnInfo("Reloaded " + ignoredWords.size() + " stopwords");
+            return true;
+        } catch (IOException e) {
+            Utils.printlnError("Failed to reload stopwords: " + e.getMessage());
+            return false;
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
         }
     }
 
@@ -199,191 +558,865 @@ public class SessionManager {
      *
      * @return the empty profile
      */
-    static JSONObject createEmptyProfile() {
-        return new JSONObject()
-                .put("numSessions", 0)
-                .put("sumPromptTokens", 0)
-                .put("sumCompletionTokens", 0)
-                .put("sumTemperature", 0.0)
-                .put("sumTimeCreated", 0)
-                .put("sumTimeLastExit", 0)
-                .put("sumTimeLastOpen", 0)
-                .put("sumLastSessionDuration", 0)
-                .put("sumPrice", 0.0)
-                .put("maxPromptTokens", Integer.MIN_VALUE)
-                .put("maxCompletionTokens", Integer.MIN_VALUE)
-                .put("maxTimeCreated", Integer.MIN_VALUE)
-                .put("maxTimeLastOpen", Integer.MIN_VALUE)
-                .put("maxTimeLastExit", Integer.MIN_VALUE)
-                .put("minPromptTokens", Integer.MAX_VALUE)
-                .put("minCompletionTokens", Integer.MAX_VALUE)
-                .put("minTimeCreated", Integer.MAX_VALUE)
-                .put("minTimeLastOpen", Integer.MAX_VALUE)
-                .put("minTimeLastExit", Integer.MAX_VALUE)
-                .put("topTags", new JSONObject())
-                .put("topWords", new JSONObject())
-                .put("topModels", new JSONObject());
+    static ProfileAccumulator createEmptyProfile() {
+        return new ProfileAccumulator();
     }
 
     /**
-     * Update the top string map with new strings
-     *
-     * @param topStringMap the top string map, from its
-     * @param newStrings   the new strings to add
-     * @return the updated top string map
-     */
-    private static JSONObject updateTopString(JSONObject topStringMap, Stream<String> newStrings) {
-        newStrings.forEach(topStringMap::increment);
-        return topStringMap;
-    }
-
-    /**
-     * Merge two top string maps
+     * Merge the second top string map into the first one in place
      *
      * @param topStringMap1 the first top string map
      * @param topStringMap2 the second top string map
      * @return the merged top string map
      */
-    private static JSONObject mergeTopString(JSONObject topStringMap1, JSONObject topStringMap2) {
-        JSONObject mergedTopStringMap = new JSONObject();
-        topStringMap1.toMap().forEach(mergedTopStringMap::put);
-        topStringMap2.toMap().forEach((key, value) -> {
-            if (mergedTopStringMap.has(key)) {
-                mergedTopStringMap.put(key, mergedTopStringMap.getInt(key) + (Integer) value);
-            } else {
-                mergedTopStringMap.put(key, value);
-            }
-        });
-        return mergedTopStringMap;
+    private static StringIntMap mergeTopString(StringIntMap topStringMap1, StringIntMap topStringMap2) {
+        topStringMap1.addAll(topStringMap2, 1);
+        return topStringMap1;
     }
 
     /**
-     * Keep only the top N strings in the map, first sorted by the value, then by the key
+     * Keep only the top N strings in the map, first ranked by the value, then by the key, see
+     * {@link StringIntMap#forEachTop}
      *
      * @param topNStringMap the top N string map
      * @param topN          the number of top strings to keep
-     * @return the updated top N string map
-     */
-    private static JSONObject limitTopNString(JSONObject topNStringMap, int topN) {
-        return topNStringMap.toMap().entrySet().stream()
-                .sorted((e1, e2) -> {
-                    Integer i1 = (Integer) e1.getValue();
-                    Integer i2 = (Integer) e2.getValue();
-                    if (i1.equals(i2)) {
-                        return e2.getKey().compareTo(e1.getKey());
-                    } else {
-                        return i2.compareTo(i1);
-                    }
-                })
-                .limit(topN)
-                .collect(
-                        JSONObject::new,
-                        (json, entry) -> json.put(entry.getKey(), entry.getValue()),
-                        SessionManager::mergeTopString
-                );
+     * @return the top N strings as JSON
+     */
+    private static JSONObject limitTopNString(StringIntMap topNStringMap, int topN) {
+        JSONObject topNStrings = new JSONObject();
+        topNStringMap.forEachTop(topN, topNStrings::put);
+        return topNStrings;
     }
 
     /**
-     * Tokenize the message into stream of words
+     * Keep only the top N strings in the sketch, ranked the same as the exact top N strings
+     *
+     * @param sketch the sketch of the top strings
+     * @param topN   the number of top strings to keep
+     * @return the top N strings with their estimated counts as JSON
+     */
+    private static JSONObject limitTopNString(SpaceSavingSketch sketch, int topN) {
+        JSONObject topNStrings = new JSONObject();
+        sketch.forEachTop(topN, topNStrings::put);
+        return topNStrings;
+    }
+
+    /**
+     * Tokenize the messages of the session into words, see {@link MessageTokenizer}
      *
      * @param session the session contains messages
-     * @return the stream of tokens
+     * @param sink    the receiver of the words
      */
-    static Stream<String> tokenizeMessages(JSONObject session) {
-        return session.getJSONObject("messages")
-                .getJSONArray("contents")
-                .toList()
-                .stream()
-                .map(m -> ((Map<String, String>) m).get("content")
-                        .replaceAll("[^a-zA-Z0-9]", " ")
-                        .toLowerCase())
-                .flatMap(m -> Arrays.stream(m.split(" ")))
-                .filter(str -> str.matches("[a-zA-Z]+"));
+    static void tokenizeMessages(JSONObject session, MessageTokenizer.TokenSink sink) {
+        JSONArray contents = session.getJSONObject("messages").getJSONArray("contents");
+        MessageTokenizer tokenizer = new MessageTokenizer();
+        for (int i = 0; i < contents.length(); i++) {
+            tokenizer.tokenize(contents.getJSONObject(i).getString("content"), sink);
+        }
     }
 
     /**
-     * Accumulate the session to the profile
-     * TODO: implement this method
+     * Get the deployment of the session from its apiURL, e.g. vicuna-13b
+     *
+     * @param session the session
+     * @return the deployment, or the whole apiURL if it has no deployment
+     */
+    static String getDeployment(JSONObject session) {
+        String apiURL = session.getString("apiURL");
+        int start = apiURL.indexOf("/deployments/");
+        if (start < 0) {
+            return apiURL;
+        }
+        start += "/deployments/".length();
+        int end = apiURL.indexOf('/', start);
+        return apiURL.substring(start, end < 0 ? apiURL.length() : end);
+    }
+
+    /**
+     * Get the model name of the session, the deployment before the first '-', e.g. vicuna
+     *
+     * @param session the session
+     * @return the model name
+     */
+    static String getModelName(JSONObject session) {
+        String deployment = getDeployment(session);
+        int end = deployment.indexOf('-');
+        return end < 0 ? deployment : deployment.substring(0, end);
+    }
+
+    /**
+     * The pattern of the number of parameters in the deployment
+     */
+    private static final Pattern modelParamsPattern = Pattern.compile("(\\d+(?:\\.\\d+)?)[bB]");
+
+    /**
+     * Get the number of parameters of the model in billions from the deployment, e.g. 13 for vicuna-13b
+     *
+     * @param session the session
+     * @return the number of parameters in billions, 0 if the deployment does not tell
+     */
+    static double getModelParams(JSONObject session) {
+        Matcher matcher = modelParamsPattern.matcher(getDeployment(session));
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Get the USD price of the session
+     *
+     * @param session the session
+     * @return the price
+     */
+    static double getPrice(JSONObject session) {
+        return (session.getLong("totalPromptTokens") * unitPromptPrice
+                + session.getLong("totalCompletionTokens") * unitCompletionPrice) * getModelParams(session);
+    }
+
+    /**
+     * Accumulate the session to the profile, with its user counted as active in the months of the session.
+     * The words are taken from the summary of the session if it is up-to-date, otherwise the messages are tokenized.
      *
      * @param profile the profile to accumulate to
+     * @param user    the user of the session
      * @param session the session to accumulate
      */
-    static void accumulateSessionToProfile(JSONObject profile, JSONObject session) {
-        throw new UnsupportedOperationException("Not implemented yet");
+    static void accumulateSessionToProfile(ProfileAccumulator profile, String user, JSONObject session) {
+        long timeLastOpen = session.getLong("timeLastOpen");
+        long timeLastExit = session.getLong("timeLastExit");
+        long promptTokens = session.getLong("totalPromptTokens");
+        long completionTokens = session.getLong("totalCompletionTokens");
+        long lastSessionDuration = Utils.getDuration(timeLastOpen, timeLastExit);
+        profile.numSessions++;
+        profile.sumPromptTokens += promptTokens;
+        profile.sumCompletionTokens += completionTokens;
+        profile.sumTemperature += session.getDouble("temperature");
+        profile.sumTimeCreated += session.getLong("timeCreated") % Utils.SoD;
+        profile.sumTimeLastOpen += timeLastOpen % Utils.SoD;
+        profile.sumTimeLastExit += timeLastExit % Utils.SoD;
+        profile.sumLastSessionDuration += lastSessionDuration;
+        profile.sumPrice += getPrice(session);
+        // in the order of ProfileAccumulator.quantileKeys
+        profile.quantiles[0].add(promptTokens);
+        profile.quantiles[1].add(completionTokens);
+        profile.quantiles[2].add(lastSessionDuration);
+        for (int i = 0; i < ProfileAccumulator.rangeFields.length; i++) {
+            long value = session.getLong(ProfileAccumulator.rangeFields[i]);
+            profile.max[i] = Math.max(profile.max[i], value);
+            profile.min[i] = Math.min(profile.min[i], value);
+        }
+        JSONArray tags = session.getJSONArray("tags");
+        for (int i = 0; i < tags.length(); i++) {
+            profile.topTags.add(tags.getString(i), 1);
+        }
+        profile.topModels.add(getModelName(session), 1);
+        addActiveMonths(profile.activeUsers, user, session);
+        StopwordSet stopwords = ignoredWords;
+        JSONObject words = SessionSummary.getWords(session, stopwords);
+        if (words != null) {
+            for (String word : words.keySet()) {
+                int count = words.getInt(word);
+                if (profile.wordSketch != null) {
+                    profile.wordSketch.offer(word, count);
+                    profile.distinctWords.add(HyperLogLog.hash(word));
+                } else {
+                    profile.topWords.add(word, count);
+                }
+            }
+            return;
+        }
+        tokenizeMessages(session, (token, length) -> {
+            if (stopwords.contains(token, length)) {
+                return;
+            }
+            if (profile.wordSketch != null) {
+                profile.wordSketch.offer(token, length);
+                profile.distinctWords.add(HyperLogLog.hash(token, length));
+            } else {
+                profile.topWords.increment(token, length);
+            }
+        });
     }
 
     /**
      * Combine two profiles into one
-     * TODO: implement this method
      *
      * @param profile1 the accumulated profile from one stream group
      * @param profile2 the accumulated profile from another stream group
+     * @return the combined profile
+     */
+    static ProfileAccumulator combineTwoProfiles(ProfileAccumulator profile1, ProfileAccumulator profile2) {
+        profile1.addSums(profile2, 1);
+        for (int i = 0; i < ProfileAccumulator.rangeKeys.length; i++) {
+            profile1.max[i] = Math.max(profile1.max[i], profile2.max[i]);
+            profile1.min[i] = Math.min(profile1.min[i], profile2.min[i]);
+        }
+        for (int i = 0; i < ProfileAccumulator.quantileKeys.length; i++) {
+            profile1.quantiles[i].addAll(profile2.quantiles[i], 1);
+        }
+        mergeTopString(profile1.topTags, profile2.topTags);
+        mergeTopString(profile1.topModels, profile2.topModels);
+        mergeTopString(profile1.topWords, profile2.topWords);
+        if (profile1.wordSketch != null) {
+            profile1.wordSketch.merge(profile2.wordSketch);
+            profile1.distinctWords.merge(profile2.distinctWords);
+        }
+        mergeActiveMonths(profile1.activeUsers, profile2.activeUsers);
+        return profile1;
+    }
+
+    /**
+     * Post process the profile, compute admin, average, quantile, top N statistics and remove useless statistics
+     *
+     * @param profile the profile to post process
+     * @return the post processed profile
      */
-    static JSONObject combineTwoProfiles(JSONObject profile1, JSONObject profile2) {
-        throw new UnsupportedOperationException("Not implemented yet");
+    static JSONObject postProcess(ProfileAccumulator profile) {
+        // an empty profile has no average, report 0 rather than dividing by 0
+        long numSessions = Math.max(profile.numSessions, 1);
+        JSONObject result = new JSONObject()
+                .put("numSessions", (int) profile.numSessions)
+                .put("sumPromptTokens", (int) profile.sumPromptTokens)
+                .put("sumCompletionTokens", (int) profile.sumCompletionTokens)
+                .put("sumPrice", profile.sumPrice)
+                .put("avgPromptTokens", (int) (profile.sumPromptTokens / numSessions))
+                .put("avgCompletionTokens", (int) (profile.sumCompletionTokens / numSessions))
+                .put("avgTimeCreated", (int) (profile.sumTimeCreated / numSessions))
+                .put("avgTimeLastOpen", (int) (profile.sumTimeLastOpen / numSessions))
+                .put("avgTimeLastExit", (int) (profile.sumTimeLastExit / numSessions))
+                .put("avgLastSessionDuration", (int) (profile.sumLastSessionDuration / numSessions))
+                .put("avgTemperature", profile.sumTemperature / numSessions)
+                .put("topTags", limitTopNString(profile.topTags, 3))
+                .put("topModels", limitTopNString(profile.topModels, 5))
+                .put("topWords", profile.wordSketch == null ? limitTopNString(profile.topWords, 20)
+                        : limitTopNString(profile.wordSketch, 20));
+        // the tags and, unless approximated, the words are all counted, so their distinct numbers are exact
+        result.put("distinctTags", profile.topTags.size());
+        result.put("distinctWords", profile.distinctWords == null ? profile.topWords.size()
+                : (int) profile.distinctWords.estimate());
+        if (profile.wordSketch != null) {
+            result.put("topWordsMaxError", profile.wordSketch.getErrorBound());
+        }
+        for (int i = 0; i < ProfileAccumulator.rangeKeys.length; i++) {
+            result.put("max" + ProfileAccumulator.rangeKeys[i], (int) profile.max[i]);
+            result.put("min" + ProfileAccumulator.rangeKeys[i], (int) profile.min[i]);
+        }
+        for (int i = 0; i < ProfileAccumulator.quantileKeys.length; i++) {
+            for (double level : ProfileAccumulator.quantileLevels) {
+                result.put("p" + Math.round(level * 100) + ProfileAccumulator.quantileKeys[i],
+                        (int) profile.quantiles[i].valueAt(level));
+            }
+        }
+        return result;
     }
 
     /**
-     * Post process the profile, compute admin, average, top N statistics and remove useless statistics
-     * TODO: implement this method
+     * Post process the profile of the user, with the admin statistics for admin
      *
+     * @param user    the user of the profile, or admin
      * @param profile the profile to post process
      * @return the post processed profile
      */
-    static JSONObject postProcess(JSONObject profile) {
-        throw new UnsupportedOperationException("Not implemented yet");
+    static JSONObject postProcess(String user, ProfileAccumulator profile) {
+        JSONObject result = postProcess(profile);
+        if (Objects.equals(user, "admin")) {
+            putAdminStatistics(result, getNumUsers(), toActiveUsersPerMonth(profile.activeUsers));
+        }
+        return result;
     }
 
     /**
-     * The collector to collect the profile
+     * The collector to collect the profile from the sessions with their users
      * The accumulator is accumulateSessionToProfile
      * The combiner is combineTwoProfiles
-     * The finisher is postProcess
+     * The profile is post processed by postProcess, which needs the user for the admin statistics
      * <a href="https://docs.oracle.com/javase/8/docs/api/java/util/stream/Collector.html">...</a>
      */
-    static Collector<JSONObject, JSONObject, JSONObject> profileCollector = Collector.of(
-            SessionManager::createEmptyProfile,
-            SessionManager::accumulateSessionToProfile,
-            SessionManager::combineTwoProfiles,
-            SessionManager::postProcess
-    );
+    static Collector<Map.Entry<String, JSONObject>, ProfileAccumulator, ProfileAccumulator> profileCollector =
+            Collector.of(
+                    SessionManager::createEmptyProfile,
+                    (profile, session) -> accumulateSessionToProfile(profile, session.getKey(), session.getValue()),
+                    SessionManager::combineTwoProfiles
+            );
 
     /**
      * Generate the profile using collect + stream
-     * TODO: implement this method
      *
      * @param user the user to generate profile for
      * @return the profile
      */
     static JSONObject generateProfileBase(String user) {
-        throw new UnsupportedOperationException("Not implemented yet");
+        return postProcess(user, getSessionsWithUsersStream(user).collect(profileCollector));
     }
 
     /**
-     * Generate the profile using collect + parallel stream
-     * TODO: implement this method
+     * Generate the profile using collect + parallel stream.
+     * The stream splits the sessions by weight, see {@link SessionSpliterator}.
      *
      * @param user the user to generate profile for
      * @return the profile
      */
     static JSONObject generateProfileParallel(String user) {
-        throw new UnsupportedOperationException("Not implemented yet");
+        return postProcess(user, getSessionsWithUsersStream(user).parallel().collect(profileCollector));
+    }
+
+    /**
+     * The bound of the overestimation of a top word count in the approximate mode, relative to the number of words,
+     * from the env variable PROFILE_SKETCH_ERROR
+     */
+    static final double sketchError = parseSketchError(
+            Optional.ofNullable(System.getenv("PROFILE_SKETCH_ERROR")).orElse("0.001"));
+
+    /**
+     * Parse the error bound of the top words sketch
+     *
+     * @param setting the setting of the error bound
+     * @return the error bound, 0.001 if the setting is not a number between 0 and 1
+     */
+    static double parseSketchError(String setting) {
+        try {
+            double error = Double.parseDouble(setting);
+            if (error > 0 && error < 1) {
+                return error;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        Utils.printlnError("Unsupported sketch error: " + setting + ", using 0.001 as default");
+        return 0.001;
+    }
+
+    /**
+     * The collector to collect the profile in the approximate mode, the same as profileCollector except that
+     * the top words are counted in a sketch of fixed size per partition, see {@link SpaceSavingSketch}
+     */
+    static Collector<Map.Entry<String, JSONObject>, ProfileAccumulator, ProfileAccumulator>
+            approximateProfileCollector = Collector.of(
+                    () -> new ProfileAccumulator(new SpaceSavingSketch(SpaceSavingSketch.capacityOf(sketchError))),
+                    (profile, session) -> accumulateSessionToProfile(profile, session.getKey(), session.getValue()),
+                    SessionManager::combineTwoProfiles
+            );
+
+    /**
+     * Generate the profile using parallel stream with the top words approximated in fixed memory.
+     * The other statistics are exact, the counts of the top words are overestimated by at most topWordsMaxError.
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileApproximate(String user) {
+        return postProcess(user, getSessionsWithUsersStream(user).parallel().collect(approximateProfileCollector));
     }
 
+    /**
+     * The number of tasks per thread in the thread pool mode, more tasks balance better but cost more to combine
+     */
+    static final int tasksPerThread = 4;
+
     /**
      * Generate the profile using thread pool
      * The goal is to achieve a comparable performance to the parallel stream
-     * TODO: implement this method
      *
      * @param user the user to generate profile for
      * @return the profile
      */
     static JSONObject generateProfileThreadPool(String user) {
-        throw new UnsupportedOperationException("Not implemented yet");
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        return generateProfileChunks(user, Executors.newFixedThreadPool(numThreads),
+                splitByWeight(getSessionsSpliterator(user), numThreads * tasksPerThread));
+    }
+
+    /**
+     * The number of tasks in the virtual thread mode, many small tasks so that the I/O of loading the sessions
+     * lazily interleaves with the work
+     */
+    static final int virtualTasks = 256;
+
+    /**
+     * Create an executor starting a virtual thread per task. Virtual threads need Java 21, on an older runtime it
+     * falls back to the platform threads of the thread pool mode.
+     *
+     * @return the executor
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * tasksPerThread);
+        }
     }
 
     /**
-     * Common interface for generating profile, by default using the parallel version
+     * Generate the profile using a virtual thread per chunk of sessions
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileVirtual(String user) {
+        return generateProfileChunks(user, newVirtualThreadExecutor(), splitByWeight(getSessionsSpliterator(user),
+                virtualTasks));
+    }
+
+    /**
+     * Profile each chunk of sessions as a task of the executor, and combine the partial profiles in the order of
+     * the chunks. The executor is owned like a structured scope: no task outlives this call, as the executor is
+     * shut down once all the tasks are done, or at once if any task fails, interrupting the others.
+     *
+     * @param user     the user to generate profile for
+     * @param executor the executor to run the tasks, shut down when returning
+     * @param chunks   the chunks of sessions
+     * @return the profile
+     */
+    static JSONObject generateProfileChunks(String user, ExecutorService executor, List<SessionSpliterator> chunks) {
+        try {
+            List<Future<ProfileAccumulator>> futures = new ArrayList<>();
+            for (SessionSpliterator chunk : chunks) {
+                futures.add(executor.submit(() -> {
+                    ProfileAccumulator profile = createEmptyProfile();
+                    chunk.forEachRemainingWithUser((owner, session) ->
+                            accumulateSessionToProfile(profile, owner, session));
+                    return profile;
+                }));
+            }
+            ProfileAccumulator profile = createEmptyProfile();
+            for (Future<ProfileAccumulator> future : futures) {
+                profile = combineTwoProfiles(profile, future.get());
+            }
+            return postProcess(user, profile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted when generating profile", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to generate profile: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Profiler of the sessions in the snapshots, by streaming them rather than parsing them into the store
+     */
+    @FunctionalInterface
+    interface SnapshotProfiler {
+        /**
+         * Accumulate the sessions wanted in the snapshots
+         *
+         * @param snapshots the paths to the snapshots
+         * @param wanted    whether a session given its user and sessionUID is wanted
+         * @return the profiles accumulated
+         * @throws IOException          if a snapshot cannot be read
+         * @throws InterruptedException if interrupted while profiling
+         * @throws ExecutionException   if profiling a session fails
+         */
+        ProfileBatch profile(Collection<Path> snapshots, BiPredicate<String, String> wanted)
+                throws IOException, InterruptedException, ExecutionException;
+    }
+
+    /**
+     * Generate the profile from the snapshots without parsing the sessions into the store.
+     * The profiler streams the sessions not in memory from the snapshots, while the sessions already in memory,
+     * which may be newer than the snapshots, are accumulated from the store. The admin statistics are gathered in
+     * the same pass.
+     *
+     * @param user     the user to generate profile for
+     * @param profiler the profiler of the sessions in the snapshots
+     * @return the profile
+     */
+    static JSONObject generateProfileFromSnapshots(String user, SnapshotProfiler profiler) {
+        Collection<String> users = Objects.equals(user, "admin") ? getUsers() : List.of(user);
+        users.forEach(SessionManager::openShard);
+        // taken before reading the snapshots, a session parsed afterwards is still read from its snapshot
+        Map<String, Set<String>> inMemory = new HashMap<>();
+        for (String streamed : users) {
+            inMemory.put(streamed, store.getParsedSessionUIDs(streamed));
+        }
+        try {
+            ProfileBatch batch = profiler.profile(store.getSnapshots(users), (streamed, sessionUID) ->
+                    inMemory.containsKey(streamed) && !inMemory.get(streamed).contains(sessionUID));
+            inMemory.forEach((streamed, sessionUIDs) -> sessionUIDs.forEach(
+                    sessionUID -> batch.accumulate(streamed, store.get(streamed, sessionUID))));
+            return postProcessBatch(user, users, batch);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read the database: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted when generating profile", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to generate profile: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Combine the profiles of the users in the batch into the profile of the user and post process it
+     *
+     * @param user  the user to generate profile for, or admin
+     * @param users the users whose profiles are combined, all the users for admin
+     * @param batch the profiles of the users before post processing
+     * @return the profile, with the admin statistics for admin
+     */
+    static JSONObject postProcessBatch(String user, Collection<String> users, ProfileBatch batch) {
+        ProfileAccumulator profile = createEmptyProfile();
+        for (String batched : users) {
+            combineTwoProfiles(profile, batch.get(batched));
+        }
+        return postProcess(user, profile);
+    }
+
+    /**
+     * The number of sessions in a chunk handed to the workers in the stream and pipeline modes
+     */
+    static final int streamChunkSize = 64;
+
+    /**
+     * Generate the profile by streaming the snapshots, see {@link #generateProfileFromSnapshots}.
+     * The snapshots are read sequentially by {@link SnapshotReader}, and the sessions are handed to a worker per
+     * core in chunks through a bounded queue, which parse and accumulate them into a {@link ProfileBatch} each and
+     * drop them at once. So the memory holds a few chunks whatever the size of the database.
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileStream(String user) {
+        return generateProfileFromSnapshots(user, SessionManager::streamSnapshots);
+    }
+
+    /**
+     * Generate the profile by streaming the snapshots through a pipeline of reading, parsing and accumulating
+     * stages, see {@link ProfilePipeline} and {@link #generateProfileFromSnapshots}
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfilePipeline(String user) {
+        return generateProfileFromSnapshots(user, ProfilePipeline::profile);
+    }
+
+    /**
+     * Accumulate the sessions wanted in the snapshots by a worker per core fed through a bounded queue
+     *
+     * @param snapshots the paths to the snapshots
+     * @param wanted    whether a session given its user and sessionUID is wanted
+     * @return the profiles accumulated
+     * @throws IOException          if a snapshot cannot be read
+     * @throws InterruptedException if interrupted while profiling
+     * @throws ExecutionException   if profiling a session fails
+     */
+    private static ProfileBatch streamSnapshots(Collection<Path> snapshots, BiPredicate<String, String> wanted)
+            throws IOException, InterruptedException, ExecutionException {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        BlockingQueue<List<Map.Entry<String, String>>> chunks = new ArrayBlockingQueue<>(2 * numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<ProfileBatch>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> accumulateChunks(chunks)));
+            }
+            try {
+                SnapshotReader.readChunks(snapshots, wanted, streamChunkSize, chunks::put);
+            } finally {
+                // an empty chunk stops a worker
+                for (int i = 0; i < numThreads; i++) {
+                    chunks.put(List.of());
+                }
+            }
+            ProfileBatch batch = new ProfileBatch();
+            for (Future<ProfileBatch> future : futures) {
+                batch.combine(future.get());
+            }
+            return batch;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse and accumulate the sessions of the chunks taken from the queue, until an empty chunk.
+     * A worker failing on a session keeps draining the queue, so that the reader never blocks on a full queue.
+     *
+     * @param chunks the queue of chunks of users and session texts
+     * @return the profiles accumulated
+     * @throws InterruptedException if interrupted while waiting for a chunk
+     */
+    private static ProfileBatch accumulateChunks(BlockingQueue<List<Map.Entry<String, String>>> chunks)
+            throws InterruptedException {
+        ProfileBatch batch = new ProfileBatch();
+        RuntimeException failure = null;
+        for (List<Map.Entry<String, String>> chunk = chunks.take(); !chunk.isEmpty(); chunk = chunks.take()) {
+            try {
+                for (int i = 0; i < chunk.size() && failure == null; i++) {
+                    batch.accumulate(chunk.get(i).getKey(), new JSONObject(chunk.get(i).getValue()));
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return batch;
+    }
+
+    /**
+     * The number of worker processes in the multiprocess mode, from the env variable PROFILE_WORKERS
+     */
+    static final int profileWorkers = parseProfileWorkers(Optional.ofNullable(System.getenv("PROFILE_WORKERS"))
+            .orElse(String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * The JVM options of the worker processes, e.g. -Xmx512m, from the env variable PROFILE_WORKER_OPTS
+     */
+    static final List<String> profileWorkerOptions = Arrays.stream(
+                    Optional.ofNullable(System.getenv("PROFILE_WORKER_OPTS")).orElse("").split("\\s+"))
+            .filter(option -> !option.isEmpty())
+            .toList();
+
+    /**
+     * Parse the number of worker processes in the multiprocess mode
+     *
+     * @param setting the setting of the number
+     * @return the number, the number of cores if the setting is not a positive number
+     */
+    static int parseProfileWorkers(String setting) {
+        try {
+            int workers = Integer.parseInt(setting);
+            if (workers > 0) {
+                return workers;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        Utils.printlnError("Unsupported number of profile workers: " + setting + ", using " + cores + " as default");
+        return cores;
+    }
+
+    /**
+     * Generate the profile in worker processes, so that profiling is not bounded by the heap and the collector of
+     * one JVM. The users are split by hash into {@link #profileWorkers} shards, and a worker process is started for
+     * each shard holding a user, see {@link ProfileWorker}. Each worker loads the database from disk, and writes the
+     * profiles of its users before post processing with all the counts of their top strings, which are combined
+     * here the same as the profiles of the threads of the other modes.
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileMultiProcess(String user) {
+        Collection<String> users = Objects.equals(user, "admin") ? getUsers() : List.of(user);
+        // the workers read the database from disk, so the logged mutations must be written before they start
+        SessionLog.flushAll();
+        Set<Integer> workerShards = new TreeSet<>();
+        users.forEach(profiled -> workerShards.add(ProfileWorker.shardOf(profiled, profileWorkers)));
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        // the arguments of a process are decoded in the platform charset, which may not hold the name of the user
+        String encodedUser = Base64.getEncoder().encodeToString(user.getBytes(StandardCharsets.UTF_8));
+        List<Process> workers = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        try {
+            for (int shard : workerShards) {
+                Path output = Files.createTempFile("profile-" + shard + "-", ".json");
+                outputs.add(output);
+                List<String> command = new ArrayList<>(List.of(java));
+                command.addAll(profileWorkerOptions);
+                command.addAll(List.of("-cp", System.getProperty("java.class.path"), ProfileWorker.class.getName(),
+                        encodedUser, String.valueOf(shard), String.valueOf(profileWorkers), output.toString()));
+                workers.add(new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+            ProfileBatch batch = new ProfileBatch();
+            for (int i = 0; i < workers.size(); i++) {
+                int exitCode = workers.get(i).waitFor();
+                if (exitCode != 0) {
+                    throw new IllegalStateException("Profile worker exited with " + exitCode);
+                }
+                ProfileBatch partial = new ProfileBatch();
+                partial.fromJSON(new JSONObject(Files.readString(outputs.get(i))));
+                batch.combine(partial);
+            }
+            return postProcessBatch(user, users, batch);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to run the profile workers: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted when generating profile", e);
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new IllegalStateException("Malformed profile from a worker: " + e.getMessage(), e);
+        } finally {
+            // stop the workers still running after a failure
+            workers.forEach(Process::destroy);
+            for (Path output : outputs) {
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException e) {
+                    Utils.printlnError("Failed to delete the profile of a worker: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Generate the profile with the strategy fitting the work: serial for a small profile where forking costs more
+     * than it saves, a thread pool sized to the work for a medium profile, or parallel stream using all the cores.
+     * The work is estimated from the store without parsing the sessions, see {@link ProfileCalibration}.
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileAuto(String user) {
+        SessionSpliterator sessions = getSessionsSpliterator(user);
+        int numCores = Runtime.getRuntime().availableProcessors();
+        long weight = sessions.estimateWeight();
+        // the sessions with a summary are not tokenized again, so a byte of them is less work
+        double summarizedShare = weight == 0 ? 0 : (double) sessions.estimateSummarizedWeight() / weight;
+        String work = sessions.estimateSize() + " sessions of about " + weight + " bytes, "
+                + Math.round(summarizedShare * 100) + "% summarized, on " + numCores + " cores";
+        if (numCores == 1) {
+            Utils.printlnInfo("Auto profile mode: base for " + work + ", no core to run in parallel");
+            return postProcess(user, StreamSupport.stream(sessions.withUsers(), false).collect(profileCollector));
+        }
+        long threadWeight = ProfileCalibration.getThreadWeight(summarizedShare);
+        int numThreads = (int) Math.min(numCores, weight / threadWeight);
+        if (numThreads <= 1) {
+            Utils.printlnInfo("Auto profile mode: base for " + work + ", a thread is worth " + threadWeight
+                    + " bytes");
+            return postProcess(user, StreamSupport.stream(sessions.withUsers(), false).collect(profileCollector));
+        }
+        if (numThreads < numCores) {
+            Utils.printlnInfo("Auto profile mode: threadpool of " + numThreads + " threads for " + work
+                    + ", a thread is worth " + threadWeight + " bytes");
+            return generateProfileChunks(user, Executors.newFixedThreadPool(numThreads),
+                    splitByWeight(sessions, numThreads * tasksPerThread));
+        }
+        Utils.printlnInfo("Auto profile mode: parallel for " + work + ", enough for all the cores");
+        return postProcess(user, StreamSupport.stream(sessions.withUsers(), true).collect(profileCollector));
+    }
+
+    /**
+     * Split the sessions into chunks of about the same weight, by always splitting the heaviest chunk
+     *
+     * @param spliterator the sessions
+     * @param numChunks   the number of chunks wanted
+     * @return the chunks, fewer than wanted if there are not enough sessions
+     */
+    static List<SessionSpliterator> splitByWeight(SessionSpliterator spliterator, int numChunks) {
+        PriorityQueue<SessionSpliterator> heaviest = new PriorityQueue<>(
+                Comparator.comparingLong(SessionSpliterator::estimateWeight).reversed());
+        List<SessionSpliterator> chunks = new ArrayList<>();
+        heaviest.add(spliterator);
+        while (!heaviest.isEmpty() && heaviest.size() + chunks.size() < numChunks) {
+            SessionSpliterator chunk = heaviest.poll();
+            SessionSpliterator prefix = (SessionSpliterator) chunk.trySplit();
+            if (prefix == null) {
+                // a single session cannot be split any further
+                chunks.add(chunk);
+            } else {
+                heaviest.add(prefix);
+                heaviest.add(chunk);
+            }
+        }
+        chunks.addAll(heaviest);
+        return chunks;
+    }
+
+    /**
+     * The profiles materialized on first request and maintained on write, a map of user or admin and the profile
+     */
+    static final Map<String, MaterializedProfile> materializedProfiles = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the profile command verifies the profile against a full recompute, from the env
+     * variable PROFILE_VERIFY
+     */
+    static final boolean profileVerify = Boolean.parseBoolean(System.getenv("PROFILE_VERIFY"));
+
+    /**
+     * Get the contribution of a session to a profile, the profile accumulated from the session alone
+     *
+     * @param user    the user of the session
+     * @param session the session
+     * @return the contribution
+     */
+    static ProfileAccumulator contributionOf(String user, JSONObject session) {
+        ProfileAccumulator contribution = createEmptyProfile();
+        accumulateSessionToProfile(contribution, user, session);
+        return contribution;
+    }
+
+    /**
+     * Update the materialized profiles of the user and admin for a written session.
+     * Called with the lock of the user held, so that the updates of a session are in the order of the writes.
+     *
+     * @param user       the user of the session
+     * @param oldSession the session before the write, or null for a new session
+     * @param newSession the session after the write
+     */
+    static void updateMaterializedProfiles(String user, JSONObject oldSession, JSONObject newSession) {
+        List<MaterializedProfile> profiles = new ArrayList<>();
+        Optional.ofNullable(materializedProfiles.get(user)).ifPresent(profiles::add);
+        Optional.ofNullable(materializedProfiles.get("admin")).ifPresent(profiles::add);
+        if (profiles.isEmpty()) {
+            return;
+        }
+        ProfileAccumulator oldContribution = oldSession == null ? null : contributionOf(user, oldSession);
+        ProfileAccumulator newContribution = contributionOf(user, newSession);
+        for (MaterializedProfile profile : profiles) {
+            if (oldContribution != null) {
+                profile.subtract(user, oldContribution);
+            }
+            profile.add(user, newContribution);
+        }
+    }
+
+    /**
+     * Get the materialized profile of the user, computing it from all the sessions on first request.
+     * The writers of the user, or of all users for admin, wait until it is computed, so no write is missed.
+     *
+     * @param user the user to get profile for
+     * @return the materialized profile
+     */
+    static MaterializedProfile materializeProfile(String user) {
+        MaterializedProfile profile = materializedProfiles.get(user);
+        if (profile != null) {
+            return profile;
+        }
+        List<ReentrantLock> locks = user.equals("admin") ? store.locks() : List.of(store.lock(user));
+        locks.forEach(ReentrantLock::lock);
+        try {
+            return materializedProfiles.computeIfAbsent(user, k -> {
+                MaterializedProfile materialized = new MaterializedProfile();
+                // the workers only read the store, so they never wait for the locks held here
+                getSessionsWithUsersStream(user).parallel().forEach(session -> materialized.add(session.getKey(),
+                        contributionOf(session.getKey(), session.getValue())));
+                return materialized;
+            });
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Generate the profile from the materialized profile, without scanning the sessions once it is materialized
+     *
+     * @param user the user to generate profile for
+     * @return the profile
+     */
+    static JSONObject generateProfileMaterialized(String user) {
+        return postProcess(user, materializeProfile(user).toProfile());
+    }
+
+    /**
+     * The profile mode of generateProfile when the env variable PROFILE_MODE is not set, the auto mode choosing among
+     * the modes recomputing the profile
+     */
+    static final String defaultProfileMode = "auto";
+
+    /**
+     * The profile mode of the profile command when the env variable PROFILE_MODE is not set, the materialized profile
+     * maintained on write, which is read without recomputing, see {@link #generateProfileMaterialized}
+     */
+    static final String defaultCommandProfileMode = "materialized";
+
+    /**
+     * Common interface for generating profile, by default using the auto version
      * Casting the epoch time from Long to Integer is safe because we will not encounter the
      * <a href="https://en.wikipedia.org/wiki/Year_2038_problem">Year 2038 problem</a>.
      *
@@ -392,22 +1425,144 @@ public class SessionManager {
      */
     static JSONObject generateProfile(String user) {
         // read from env variable
-        String profileMode = Optional.ofNullable(System.getenv("PROFILE_MODE")).orElse("parallel");
-        JSONObject profile = switch (profileMode) {
+        String profileMode = Optional.ofNullable(System.getenv("PROFILE_MODE")).orElse(defaultProfileMode);
+        return generateProfile(user, profileMode);
+    }
+
+    /**
+     * Count the user as active in the months the session is created and last opened. A user is counted in a
+     * {@link HyperLogLog} per month, so the memory does not grow with the number of users, and the estimates have
+     * a standard error of about 1.6%.
+     *
+     * @param months  the users active in each month, a map of month and users
+     * @param user    the user of the session
+     * @param session the session
+     */
+    static void addActiveMonths(Map<String, HyperLogLog> months, String user, JSONObject session) {
+        long hash = HyperLogLog.hash(user);
+        months.computeIfAbsent(Utils.getMonth(session.getLong("timeCreated")), k -> new HyperLogLog()).add(hash);
+        months.computeIfAbsent(Utils.getMonth(session.getLong("timeLastOpen")), k -> new HyperLogLog()).add(hash);
+    }
+
+    /**
+     * Merge the users active in each month into the first map
+     *
+     * @param months1 the users active in each month, merged into
+     * @param months2 the other users active in each month
+     * @return the merged users active in each month
+     */
+    static Map<String, HyperLogLog> mergeActiveMonths(Map<String, HyperLogLog> months1,
+                                                      Map<String, HyperLogLog> months2) {
+        // merged into a new sketch rather than shared, as the sketches of months1 are merged into later
+        months2.forEach((month, users) -> months1.computeIfAbsent(month, k -> new HyperLogLog()).merge(users));
+        return months1;
+    }
+
+    /**
+     * Estimate the number of users active in each month
+     *
+     * @param months the users active in each month, a map of month and users
+     * @return the estimated number of active users, a map of month and number in the order of the months
+     */
+    static JSONObject toActiveUsersPerMonth(Map<String, HyperLogLog> months) {
+        JSONObject activeUsers = new JSONObject();
+        new TreeMap<>(months).forEach((month, users) -> activeUsers.put(month, users.estimate()));
+        return activeUsers;
+    }
+
+    /**
+     * Put the admin only statistics into the profile of admin
+     *
+     * @param profile             the profile of admin
+     * @param numUsers            the number of users
+     * @param activeUsersPerMonth the estimated number of users active in each month
+     */
+    static void putAdminStatistics(JSONObject profile, int numUsers, JSONObject activeUsersPerMonth) {
+        profile.put("numUsers", numUsers);
+        profile.put("avgSessions", profile.getInt("numSessions") / numUsers);
+        profile.put("activeUsersPerMonth", activeUsersPerMonth);
+    }
+
+    /**
+     * Generate the profile in the given mode
+     *
+     * @param user        the user to generate profile for
+     * @param profileMode the mode: auto, base, parallel, threadpool, virtual, materialized, approximate, stream,
+     *                    pipeline or multiprocess
+     * @return the profile
+     */
+    static JSONObject generateProfile(String user, String profileMode) {
+        reloadStopwords();
+        return switch (profileMode) {
             case "base" -> generateProfileBase(user);
             case "threadpool" -> generateProfileThreadPool(user);
             case "parallel" -> generateProfileParallel(user);
+            case "materialized" -> generateProfileMaterialized(user);
+            case "approximate" -> generateProfileApproximate(user);
+            case "virtual" -> generateProfileVirtual(user);
+            case "auto" -> generateProfileAuto(user);
+            case "stream" -> generateProfileStream(user);
+            case "pipeline" -> generateProfilePipeline(user);
+            case "multiprocess" -> generateProfileMultiProcess(user);
             default -> {
                 Utils.printlnError("Unsupported profile mode: " + profileMode + ", using parallel as default");
                 yield generateProfileParallel(user);
             }
         };
-        // admin only statistics
-        if (user.equals("admin")) {
-            profile.put("numUsers", getNumUsers());
-            profile.put("avgSessions", profile.getInt("numSessions") / getNumUsers());
+    }
+
+    /**
+     * Generate the profiles of all users and admin in one parallel pass over the database.
+     * The sessions of all users are split by weight into chunks, each chunk accumulates the profiles of the users it
+     * spans, then the profiles of a user are combined across the chunks, and the profile of admin is combined from
+     * the profiles of the users rather than accumulated again.
+     *
+     * @return the profiles, a map of user or admin and the profile
+     */
+    static Map<String, JSONObject> generateAllProfiles() {
+        reloadStopwords();
+        Set<String> users = getUsers();
+        users.forEach(SessionManager::openShard);
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        List<SessionSpliterator> chunks = splitByWeight(store.spliterator(users),
+                numThreads * tasksPerThread);
+        ProfileBatch batch = chunks.parallelStream()
+                .map(chunk -> {
+                    ProfileBatch chunkBatch = new ProfileBatch();
+                    chunk.forEachRemainingWithUser(chunkBatch::accumulate);
+                    return chunkBatch;
+                })
+                .reduce(ProfileBatch::combine)
+                .orElseGet(ProfileBatch::new);
+        ProfileAccumulator admin = createEmptyProfile();
+        for (String user : users) {
+            combineTwoProfiles(admin, batch.get(user));
         }
-        return profile;
+        Map<String, JSONObject> profiles = new ConcurrentHashMap<>();
+        users.parallelStream().forEach(user -> profiles.put(user, postProcess(batch.get(user))));
+        profiles.put("admin", postProcess("admin", admin));
+        return profiles;
+    }
+
+    /**
+     * Generate the profiles of all users and admin at once and save them as json files in parallel
+     */
+    public static void profileAll() {
+        Map<String, JSONObject> profiles = generateAllProfiles();
+        List<String> failures = profiles.entrySet().parallelStream()
+                .filter(entry -> {
+                    try {
+                        Files.writeString(Paths.get(entry.getKey() + "-profile.json"), entry.getValue().toString(2));
+                        return false;
+                    } catch (IOException | InvalidPathException e) {
+                        return true;
+                    }
+                })
+                .map(Map.Entry::getKey)
+                .toList();
+        failures.forEach(user -> Utils.printlnError("Fail to generate profile for " + user));
+        System.out.println(Utils.toInfo(String.valueOf(profiles.size() - failures.size()))
+                + " profiles generated at " + Utils.toInfo("<user>-profile.json"));
     }
 
     /**
@@ -430,14 +1585,100 @@ public class SessionManager {
     }
 
     /**
-     * Generate a profile for the user, print and save as json file
+     * Verify a profile against the profile recomputed from all the sessions, and report the differences
+     *
+     * @param profile    the profile to verify
+     * @param recomputed the profile recomputed from all the sessions
+     */
+    static void verifyProfile(JSONObject profile, JSONObject recomputed) {
+        List<String> differences = new ArrayList<>();
+        for (String key : recomputed.keySet()) {
+            Object expected = recomputed.get(key);
+            Object actual = profile.opt(key);
+            boolean same = expected instanceof Double && actual instanceof Number
+                    ? Math.abs((Double) expected - ((Number) actual).doubleValue()) <= 1e-6 * Math.abs((Double) expected)
+                    : expected instanceof JSONObject ? ((JSONObject) expected).similar(actual) : expected.equals(actual);
+            if (!same) {
+                differences.add(key);
+            }
+        }
+        if (differences.isEmpty()) {
+            Utils.printlnInfo("Profile verified against a full recompute");
+        } else {
+            Utils.printlnError("Profile differs from a full recompute in " + String.join(", ", differences));
+        }
+    }
+
+    /**
+     * The path to the directory of the cached profiles
+     */
+    static final String profileCacheDir = "profile-cache";
+
+    /**
+     * The capacity of the cached profiles in memory in bytes, from the env variable PROFILE_CACHE_BYTES
+     */
+    static final long profileCacheBytes = parseProfileCacheBytes(
+            Optional.ofNullable(System.getenv("PROFILE_CACHE_BYTES")).orElse("16777216"));
+
+    /**
+     * The profiles generated by the profile command, see {@link ProfileCache}
+     */
+    static final ProfileCache profileCache = new ProfileCache(Paths.get(profileCacheDir), profileCacheBytes);
+
+    /**
+     * Parse the capacity of the cached profiles in memory
+     *
+     * @param setting the setting of the capacity
+     * @return the capacity in bytes, 16 MiB if the setting is not a non-negative number
+     */
+    static long parseProfileCacheBytes(String setting) {
+        try {
+            long bytes = Long.parseLong(setting);
+            if (bytes >= 0) {
+                return bytes;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        Utils.printlnError("Unsupported profile cache size: " + setting + ", using 16777216 as default");
+        return 16777216;
+    }
+
+    /**
+     * Get the profile from the cache if the database is unchanged since it is generated, or generate and cache it.
+     * The stopwords and the sketch error change the profile as well, so they are part of the tag and the mode.
+     *
+     * @param user        the user to generate profile for
+     * @param profileMode the mode, see {@link #generateProfile(String, String)}
+     * @return the profile, which must not be mutated
+     */
+    static JSONObject getCachedProfile(String user, String profileMode) {
+        reloadStopwords();
+        // the tag is taken before generating, so a profile never claims a newer version than it has seen
+        String tag = dbVersion.getTag() + "-" + Long.toHexString(ignoredWords.fingerprint());
+        String cacheMode = profileMode.equals("approximate") ? profileMode + "-" + sketchError : profileMode;
+        JSONObject profile = profileCache.get(user, cacheMode, tag);
+        if (profile == null) {
+            profile = generateProfile(user, profileMode);
+            profileCache.put(user, cacheMode, tag, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Generate a profile for the user, print and save as json file.
+     * The profile is reused from the cache while the database is unchanged, see {@link #getCachedProfile}.
      *
      * @param user the user to generate profile for
      */
     public static void profile(String user) {
         // print profile to stdout
         System.out.printf("----- %s CHAT CLIENT PROFILE ----- %n", user.toUpperCase());
-        JSONObject profile = generateProfile(user);
+        String profileMode = Optional.ofNullable(System.getenv("PROFILE_MODE")).orElse(defaultCommandProfileMode);
+        JSONObject profile = getCachedProfile(user, profileMode);
+        if (profileVerify) {
+            verifyProfile(profile, generateProfile(user, "parallel"));
+        }
         printProfile(profile);
         // save profile to file
         try {
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * SessionShards class stores the session database sharded by user.
+ * Every user owns one shard, which is a snapshot file of the same layout as db.json holding only that user,
+ * plus a {@link SessionLog} of the changes since the snapshot. A small manifest maps each user to its shard.
+ */
+public class SessionShards {
+    /**
+     * The directory holding the manifest and all the shards
+     */
+    private final Path shardDir;
+
+    /**
+     * Whether the snapshots are written in the binary encoding of {@link SessionCodec}, or in the db.json layout
+     */
+    private final boolean binary;
+
+    /**
+     * The logs of the shards opened, a map of shard name and log
+     */
+    private final Map<String, SessionLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * The manifest, {"users": {user: shardName}, "nextShard": number}
+     */
+    private JSONObject manifest;
+
+    /**
+     * Constructor of SessionShards
+     *
+     * @param shardDir the directory holding the manifest and all the shards
+     * @param binary   whether the snapshots are written in the binary encoding
+     */
+    SessionShards(Path shardDir, boolean binary) {
+        this.shardDir = shardDir;
+        this.binary = binary;
+        this.manifest = new JSONObject().put("users", new JSONObject()).put("nextShard", 0);
+    }
+
+    /**
+     * Get the path to the manifest
+     *
+     * @return the path to the manifest
+     */
+    private Path manifestPath() {
+        return shardDir.resolve("manifest.json");
+    }
+
+    /**
+     * Check whether the sharded database has been created
+     *
+     * @return true if the manifest exists
+     */
+    boolean exists() {
+        return Files.exists(manifestPath());
+    }
+
+    /**
+     * Load the manifest from file
+     *
+     * @throws IOException   if the manifest cannot be read
+     * @throws JSONException if the manifest is malformed
+     */
+    void loadManifest() throws IOException, JSONException {
+        manifest = new JSONObject(Files.readString(manifestPath()));
+    }
+
+    /**
+     * Get the set of users stored in the shards
+     *
+     * @return the set of users
+     */
+    Set<String> getUsers() {
+        return manifest.getJSONObject("users").keySet();
+    }
+
+    /**
+     * Check whether the user has a shard
+     *
+     * @param user the user
+     * @return true if the user has a shard
+     */
+    boolean has(String user) {
+        return manifest.getJSONObject("users").has(user);
+    }
+
+    /**
+     * Get the path to the snapshot of the user's shard in the given format
+     *
+     * @param user     the user
+     * @param inBinary whether the snapshot is in the binary encoding
+     * @return the path to the snapshot
+     */
+    private Path snapshotPath(String user, boolean inBinary) {
+        return shardDir.resolve(manifest.getJSONObject("users").getString(user) + (inBinary ? ".bin" : ".json"));
+    }
+
+    /**
+     * Get the path to the existing snapshot of the user's shard, in either format
+     *
+     * @param user the user
+     * @return the path to the snapshot
+     */
+    private Path snapshotPath(String user) {
+        Path binaryPath = snapshotPath(user, true);
+        return Files.exists(binaryPath) ? binaryPath : snapshotPath(user, false);
+    }
+
+    /**
+     * Get the log of the user's shard, the logs are kept open so that their records are group committed
+     *
+     * @param user the user
+     * @return the log
+     */
+    private SessionLog shardLog(String user) {
+        String shardName = manifest.getJSONObject("users").getString(user);
+        return logs.computeIfAbsent(shardName, name -> new SessionLog(shardDir.resolve(name + ".log")));
+    }
+
+    /**
+     * Allocate a new shard for the user if the user has none, the manifest is not saved
+     *
+     * @param user the user
+     * @return true if a new shard is allocated
+     */
+    synchronized boolean allocate(String user) {
+        if (has(user)) {
+            return false;
+        }
+        int shardId = manifest.getInt("nextShard");
+        manifest.getJSONObject("users").put(user, "shard-" + shardId);
+        manifest.put("nextShard", shardId + 1);
+        return true;
+    }
+
+    /**
+     * Get the log of the user's shard to append the mutations to. If the user has no shard, a new shard is
+     * allocated and the manifest is saved first, so that the log is never orphaned.
+     *
+     * @param user the user
+     * @return the log
+     * @throws IOException if the manifest cannot be saved
+     */
+    synchronized SessionLog getLog(String user) throws IOException {
+        if (allocate(user)) {
+            saveManifest();
+        }
+        return shardLog(user);
+    }
+
+    /**
+     * Open the shard of the user into the store. A JSON snapshot is only indexed, and the shard log is replayed
+     * into the store, so only the logged sessions are parsed. A binary snapshot is decoded as a whole.
+     *
+     * @param user  the user
+     * @param store the store to open the shard into
+     * @throws IOException   if the shard cannot be read
+     * @throws JSONException if the shard is malformed
+     */
+    void openShard(String user, SessionStore store) throws IOException, JSONException {
+        Path snapshot = snapshotPath(user);
+        SessionIndex index = null;
+        JSONObject shard = new JSONObject().put(user, new JSONObject());
+        if (SessionCodec.isBinary(snapshot)) {
+            shard = SessionCodec.decode(Files.readAllBytes(snapshot));
+        } else if (Files.exists(snapshot)) {
+            index = new SessionIndex(snapshot);
+        }
+        shardLog(user).replay(shard, index);
+        store.putUser(user, shard.getJSONObject(user), index);
+    }
+
+    /**
+     * Checkpoint the shard log of the user into the snapshot, if the snapshot is missing or the log grows past
+     * the compact ratio of the snapshot size
+     *
+     * @param user         the user
+     * @param sessions     the supplier of all the sessions of the user, only called when writing the snapshot
+     * @param compactRatio checkpoint the log once it exceeds this ratio of the snapshot size
+     * @param force        whether to checkpoint anyway
+     * @return true if the snapshot is written
+     * @throws IOException if the shard cannot be written
+     */
+    boolean checkpoint(String user, Supplier<JSONObject> sessions, double compactRatio, boolean force)
+            throws IOException {
+        Path snapshot = snapshotPath(user);
+        SessionLog log = shardLog(user);
+        if (!force && Files.exists(snapshot) && log.size() <= Files.size(snapshot) * compactRatio) {
+            return false;
+        }
+        Files.createDirectories(shardDir);
+        JSONObject shard = new JSONObject().put(user, sessions.get());
+        writeAtomically(snapshotPath(user, binary), binary ? SessionCodec.encode(shard)
+                : shard.toString(4).getBytes(StandardCharsets.UTF_8));
+        // the snapshot in the other format is stale now
+        Files.deleteIfExists(snapshotPath(user, !binary));
+        // a crash right here replays the records once more on top of the new snapshot, where only addTags
+        // is not idempotent, we accept the duplicated tags rather than fsync a marker per checkpoint
+        log.clear();
+        return true;
+    }
+
+    /**
+     * Save the manifest to file
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    synchronized void saveManifest() throws IOException {
+        Files.createDirectories(shardDir);
+        writeAtomically(manifestPath(), manifest.toString(4).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a file through a temporary file, so that a crash never leaves a partial file
+     *
+     * @param path    the path to write
+     * @param content the content to write
+     * @throws IOException if the file cannot be written
+     */
+    static void writeAtomically(Path path, byte[] content) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmpPath, content);
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
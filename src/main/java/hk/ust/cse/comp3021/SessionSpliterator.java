@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * SessionSpliterator class walks the sessions of a list of users directly in the {@link SessionStore},
+ * the sessions are yielded as they are stored without copying.
+ * <p>
+ * All the sessions are numbered in a flat range across the users, each with a weight estimating the work to
+ * process it (see {@link SessionStore#weigh}). A split halves the total weight of the range rather than the number
+ * of sessions or users, so a heavy user or a few long sessions are spread over all the workers.
+ * The size of the root spliterator is exact, the size of a split is its weight in units of the average session.
+ */
+public class SessionSpliterator implements Spliterator<JSONObject> {
+    /**
+     * The store holding the sessions
+     */
+    private final SessionStore store;
+
+    /**
+     * The users to walk, in order
+     */
+    private final String[] users;
+
+    /**
+     * The sessionUIDs of each user, in the same order as users
+     */
+    private final String[][] sessionUIDs;
+
+    /**
+     * The flat position of the first session of each user, with the total number of sessions at the end
+     */
+    private final int[] starts;
+
+    /**
+     * The total weight of the sessions before each flat position, with the total weight at the end
+     */
+    private final long[] weights;
+
+    /**
+     * The total weight of the sessions with a summary before each flat position, with the total at the end
+     */
+    private final long[] summarizedWeights;
+
+    /**
+     * The average weight of a session
+     */
+    private final double avgWeight;
+
+    /**
+     * Whether this is the root spliterator, whose size is exact
+     */
+    private final boolean root;
+
+    /**
+     * The user of the next session
+     */
+    private int userPos;
+
+    /**
+     * The flat position of the next session
+     */
+    private int origin;
+
+    /**
+     * The flat position after the last session of this split
+     */
+    private final int fence;
+
+    /**
+     * Constructor of SessionSpliterator over all the sessions of the users
+     *
+     * @param store          the store holding the sessions
+     * @param users          the users to walk
+     * @param sessionUIDs    the sessionUIDs of each user
+     * @param sessionWeights the weights of the sessions of each user, at least 1
+     * @param summarized     whether each session of each user has a summary, see {@link SessionStore#hasSummary}
+     */
+    SessionSpliterator(SessionStore store, String[] users, String[][] sessionUIDs, long[][] sessionWeights,
+                       boolean[][] summarized) {
+        this.store = store;
+        this.users = users;
+        this.sessionUIDs = sessionUIDs;
+        this.starts = new int[users.length + 1];
+        for (int i = 0; i < users.length; i++) {
+            starts[i + 1] = starts[i] + sessionUIDs[i].length;
+        }
+        this.weights = new long[starts[users.length] + 1];
+        this.summarizedWeights = new long[weights.length];
+        int pos = 0;
+        for (int i = 0; i < users.length; i++) {
+            for (int j = 0; j < sessionWeights[i].length; j++) {
+                weights[pos + 1] = weights[pos] + sessionWeights[i][j];
+                summarizedWeights[pos + 1] = summarizedWeights[pos] + (summarized[i][j] ? sessionWeights[i][j] : 0);
+                pos++;
+            }
+        }
+        this.avgWeight = pos == 0 ? 1 : (double) weights[pos] / pos;
+        this.root = true;
+        this.userPos = 0;
+        this.origin = 0;
+        this.fence = starts[users.length];
+    }
+
+    /**
+     * Constructor of SessionSpliterator over a range of the sessions, sharing the arrays of the parent
+     *
+     * @param parent the spliterator being split
+     * @param origin the flat position of the first session
+     * @param fence  the flat position after the last session
+     */
+    private SessionSpliterator(SessionSpliterator parent, int origin, int fence) {
+        this.store = parent.store;
+        this.users = parent.users;
+        this.sessionUIDs = parent.sessionUIDs;
+        this.starts = parent.starts;
+        this.weights = parent.weights;
+        this.summarizedWeights = parent.summarizedWeights;
+        this.avgWeight = parent.avgWeight;
+        this.root = false;
+        this.userPos = userOf(origin);
+        this.origin = origin;
+        this.fence = fence;
+    }
+
+    /**
+     * Find the user owning the session at the flat position
+     *
+     * @param pos the flat position
+     * @return the position of the user, the last user owning any session before pos if pos is the end
+     */
+    private int userOf(int pos) {
+        int low = 0;
+        int high = users.length - 1;
+        // the last user whose start is not after pos
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= pos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the session at the current position and move to the next one. The store is only read, a session without
+     * an up-to-date summary is summarized when it is written or checkpointed, see {@link SessionManager#checkpoint}.
+     *
+     * @return the session
+     */
+    private JSONObject next() {
+        while (origin >= starts[userPos + 1]) {
+            userPos++;
+        }
+        String user = users[userPos];
+        String sessionUID = sessionUIDs[userPos][origin - starts[userPos]];
+        origin++;
+        return store.get(user, sessionUID);
+    }
+
+    /**
+     * Yield the next session if any
+     *
+     * @param action the action on the session
+     * @return false if no session remains
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super JSONObject> action) {
+        if (origin >= fence) {
+            return false;
+        }
+        action.accept(next());
+        return true;
+    }
+
+    /**
+     * Yield all the remaining sessions
+     *
+     * @param action the action on each session
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super JSONObject> action) {
+        while (origin < fence) {
+            action.accept(next());
+        }
+    }
+
+    /**
+     * Yield all the remaining sessions with their users
+     *
+     * @param action the action on each user and session
+     */
+    void forEachRemainingWithUser(BiConsumer<String, ? super JSONObject> action) {
+        while (origin < fence) {
+            JSONObject session = next();
+            // next has moved userPos to the user of the session
+            action.accept(users[userPos], session);
+        }
+    }
+
+    /**
+     * Get a view of the remaining sessions yielding each session with its user, split in the same way.
+     * Advancing the view advances this spliterator.
+     *
+     * @return the spliterator of the users and sessions
+     */
+    Spliterator<Map.Entry<String, JSONObject>> withUsers() {
+        return new WithUsers(this);
+    }
+
+    /**
+     * The view of a {@link SessionSpliterator} yielding each session with its user
+     */
+    private static class WithUsers implements Spliterator<Map.Entry<String, JSONObject>> {
+        /**
+         * The spliterator of the sessions
+         */
+        private final SessionSpliterator sessions;
+
+        /**
+         * Constructor of WithUsers
+         *
+         * @param sessions the spliterator of the sessions
+         */
+        WithUsers(SessionSpliterator sessions) {
+            this.sessions = sessions;
+        }
+
+        /**
+         * Yield the next user and session if any
+         *
+         * @param action the action on the user and session
+         * @return false if no session remains
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<String, JSONObject>> action) {
+            if (sessions.origin >= sessions.fence) {
+                return false;
+            }
+            JSONObject session = sessions.next();
+            action.accept(Map.entry(sessions.users[sessions.userPos], session));
+            return true;
+        }
+
+        /**
+         * Yield all the remaining users and sessions
+         *
+         * @param action the action on each user and session
+         */
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<String, JSONObject>> action) {
+            sessions.forEachRemainingWithUser((user, session) -> action.accept(Map.entry(user, session)));
+        }
+
+        /**
+         * Split off the first half of the remaining sessions by weight
+         *
+         * @return the view of the first half, or null if only one session remains
+         */
+        @Override
+        public Spliterator<Map.Entry<String, JSONObject>> trySplit() {
+            SessionSpliterator prefix = (SessionSpliterator) sessions.trySplit();
+            return prefix == null ? null : new WithUsers(prefix);
+        }
+
+        /**
+         * Get the number of the remaining sessions, see {@link SessionSpliterator#estimateSize}
+         *
+         * @return the estimated number of the remaining sessions
+         */
+        @Override
+        public long estimateSize() {
+            return sessions.estimateSize();
+        }
+
+        /**
+         * Get the characteristics, the same as the ones of the sessions
+         *
+         * @return the characteristics
+         */
+        @Override
+        public int characteristics() {
+            return sessions.characteristics();
+        }
+    }
+
+    /**
+     * Get the total weight of the remaining sessions
+     *
+     * @return the weight of the remaining sessions
+     */
+    long estimateWeight() {
+        return weights[fence] - weights[origin];
+    }
+
+    /**
+     * Get the total weight of the remaining sessions with a summary, whose words are not tokenized again
+     *
+     * @return the weight of the remaining sessions with a summary
+     */
+    long estimateSummarizedWeight() {
+        return summarizedWeights[fence] - summarizedWeights[origin];
+    }
+
+    /**
+     * Split off the first half of the remaining sessions by weight
+     *
+     * @return the spliterator of the first half, or null if only one session remains
+     */
+    @Override
+    public Spliterator<JSONObject> trySplit() {
+        if (fence - origin < 2) {
+            return null;
+        }
+        // the first position where the prefix reaches half of the weight, keeping at least one session each side
+        long half = weights[origin] + estimateWeight() / 2;
+        int mid = Arrays.binarySearch(weights, origin + 1, fence, half);
+        mid = Math.min(Math.max(mid < 0 ? -mid - 1 : mid, origin + 1), fence - 1);
+        SessionSpliterator prefix = new SessionSpliterator(this, origin, mid);
+        origin = mid;
+        userPos = userOf(mid);
+        return prefix;
+    }
+
+    /**
+     * Get the number of the remaining sessions, exact for the root spliterator. For a split, it is the weight in
+     * units of the average session, so that parallel streams keep splitting the heavy ranges.
+     *
+     * @return the estimated number of the remaining sessions
+     */
+    @Override
+    public long estimateSize() {
+        if (root) {
+            return fence - origin;
+        }
+        return Math.max(1, Math.round(estimateWeight() / avgWeight));
+    }
+
+    /**
+     * Get the characteristics, only the size of the root spliterator is exact
+     *
+     * @return the characteristics
+     */
+    @Override
+    public int characteristics() {
+        return root ? ORDERED | SIZED | NONNULL : ORDERED | NONNULL;
+    }
+}
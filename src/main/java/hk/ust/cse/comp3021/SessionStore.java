@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SessionStore class holds the session database in memory, keyed by user and sessionUID.
+ * The sessions of a JSON snapshot are only indexed, and parsed into the store on first access.
+ * <p>
+ * Reads never lock: the sessions are kept in concurrent maps and a stored session is never mutated in place,
+ * a writer replaces it with an updated copy instead, so a reader always sees a consistent snapshot of a session.
+ * Writers of the same user are serialized by a striped lock, so that the mutations of a user are logged in the
+ * same order as they are applied, while writers of different users mostly proceed in parallel.
+ */
+public class SessionStore {
+    /**
+     * The number of lock stripes, a power of two
+     */
+    static final int numStripes = 64;
+
+    /**
+     * The estimated length in bytes of a session without messages, see {@link #weigh(JSONObject)}
+     */
+    static final int sessionOverhead = 512;
+
+    /**
+     * The sessions, a map of user, sessionUID and session
+     */
+    private final Map<String, Map<String, JSONObject>> users = new ConcurrentHashMap<>();
+
+    /**
+     * The indexes of the snapshots holding the sessions not parsed yet, a map of user and the index
+     */
+    private final Map<String, SessionIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * The striped locks of the writers, a user always maps to the same lock
+     */
+    private final ReentrantLock[] locks = new ReentrantLock[numStripes];
+
+    /**
+     * Constructor of SessionStore
+     */
+    SessionStore() {
+        for (int i = 0; i < numStripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Get the lock guarding the writers of the user
+     *
+     * @param user the user
+     * @return the lock
+     */
+    ReentrantLock lock(String user) {
+        // spread the hash so that users differing only in the high bits do not share a stripe
+        int hash = user.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (numStripes - 1)];
+    }
+
+    /**
+     * Get all the striped locks, always in the same order so that taking all of them never deadlocks
+     *
+     * @return the locks
+     */
+    List<ReentrantLock> locks() {
+        return List.of(locks);
+    }
+
+    /**
+     * Remove all the users and sessions
+     */
+    void clear() {
+        users.clear();
+        indexes.clear();
+    }
+
+    /**
+     * Check whether the user is in the store
+     *
+     * @param user the user
+     * @return true if the user is in the store
+     */
+    boolean hasUser(String user) {
+        return users.containsKey(user);
+    }
+
+    /**
+     * Get the set of users in the store
+     *
+     * @return the live, unmodifiable set of users
+     */
+    Set<String> getUsers() {
+        return Collections.unmodifiableSet(users.keySet());
+    }
+
+    /**
+     * Add the user without sessions if the user is not in the store
+     *
+     * @param user the user
+     * @return true if the user is added
+     */
+    boolean addUser(String user) {
+        return users.putIfAbsent(user, new ConcurrentHashMap<>()) == null;
+    }
+
+    /**
+     * Put the user with all the sessions, replacing the sessions of the user in the store
+     *
+     * @param user     the user
+     * @param sessions the sessions parsed, a map of sessionUID and session
+     * @param index    the index of the snapshot holding the other sessions of the user, or null
+     */
+    void putUser(String user, JSONObject sessions, SessionIndex index) {
+        Map<String, JSONObject> map = new ConcurrentHashMap<>();
+        for (String sessionUID : sessions.keySet()) {
+            map.put(sessionUID, sessions.getJSONObject(sessionUID));
+        }
+        // publish the index before the user, so that a reader seeing the user also sees its index
+        if (index != null) {
+            indexes.put(user, index);
+        } else {
+            indexes.remove(user);
+        }
+        users.put(user, map);
+    }
+
+    /**
+     * Put all the users and sessions of a database in the db.json layout
+     *
+     * @param db    the database
+     * @param index the index of the snapshot holding the sessions not parsed yet, or null
+     */
+    void putAll(JSONObject db, SessionIndex index) {
+        for (String user : db.keySet()) {
+            putUser(user, db.getJSONObject(user), index);
+        }
+    }
+
+    /**
+     * Get the sessionUIDs of the user, including the sessions not parsed yet
+     *
+     * @param user the user
+     * @return the set of sessionUIDs, empty if the user is not in the store
+     */
+    Set<String> getSessionUIDs(String user) {
+        Set<String> sessionUIDs = new LinkedHashSet<>();
+        SessionIndex index = indexes.get(user);
+        if (index != null) {
+            sessionUIDs.addAll(index.getSessionUIDs(user));
+        }
+        sessionUIDs.addAll(users.getOrDefault(user, Map.of()).keySet());
+        return sessionUIDs;
+    }
+
+    /**
+     * Get the sessionUIDs of the sessions of the user already in memory, i.e. parsed or set since the snapshot.
+     * The other sessions of the user are unchanged in the snapshot.
+     *
+     * @param user the user
+     * @return a copy of the set of sessionUIDs, empty if the user is not in the store
+     */
+    Set<String> getParsedSessionUIDs(String user) {
+        return new HashSet<>(users.getOrDefault(user, Map.of()).keySet());
+    }
+
+    /**
+     * Get the paths to the snapshots holding the sessions of the users not parsed yet
+     *
+     * @param users the users
+     * @return the paths to the snapshots, each only once
+     */
+    Set<Path> getSnapshots(Collection<String> users) {
+        Set<Path> snapshots = new LinkedHashSet<>();
+        for (String user : users) {
+            SessionIndex index = indexes.get(user);
+            if (index != null) {
+                snapshots.add(index.getSnapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Get the session, parsing it from the snapshot on first access
+     *
+     * @param user       the user
+     * @param sessionUID the sessionUID
+     * @return the session, or null if the session is not in the store
+     * @throws JSONException if the session in the snapshot is malformed
+     */
+    JSONObject get(String user, String sessionUID) throws JSONException {
+        Map<String, JSONObject> sessions = users.get(user);
+        if (sessions == null) {
+            return null;
+        }
+        JSONObject session = sessions.get(sessionUID);
+        SessionIndex index = indexes.get(user);
+        if (session == null && index != null) {
+            // parse without any lock, if two readers race the first parsed copy wins
+            JSONObject parsed = index.read(user, sessionUID);
+            if (parsed != null) {
+                JSONObject existing = sessions.putIfAbsent(sessionUID, parsed);
+                session = existing == null ? parsed : existing;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Put the session, the session must not be mutated afterwards
+     *
+     * @param user       the user, added if not in the store
+     * @param sessionUID the sessionUID
+     * @param session    the session
+     */
+    void put(String user, String sessionUID, JSONObject session) {
+        users.computeIfAbsent(user, k -> new ConcurrentHashMap<>()).put(sessionUID, session);
+    }
+
+    /**
+     * Get a spliterator walking the sessions of the users directly in the store.
+     * The sessionUIDs are fixed when the spliterator is created, a session set afterwards is not walked.
+     *
+     * @param users the users to walk
+     * @return the spliterator of the sessions
+     */
+    SessionSpliterator spliterator(Collection<String> users) {
+        String[] userArray = users.toArray(new String[0]);
+        String[][] sessionUIDs = new String[userArray.length][];
+        long[][] weights = new long[userArray.length][];
+        boolean[][] summarized = new boolean[userArray.length][];
+        for (int i = 0; i < userArray.length; i++) {
+            sessionUIDs[i] = getSessionUIDs(userArray[i]).toArray(new String[0]);
+            weights[i] = new long[sessionUIDs[i].length];
+            summarized[i] = new boolean[sessionUIDs[i].length];
+            for (int j = 0; j < sessionUIDs[i].length; j++) {
+                weights[i][j] = weigh(userArray[i], sessionUIDs[i][j]);
+                summarized[i][j] = hasSummary(userArray[i], sessionUIDs[i][j]);
+            }
+        }
+        return new SessionSpliterator(this, userArray, sessionUIDs, weights, summarized);
+    }
+
+    /**
+     * Estimate the work to process the session without parsing it, which is dominated by the volume of messages.
+     * The length in the snapshot is used if the session is indexed, otherwise the length of the messages.
+     *
+     * @param user       the user
+     * @param sessionUID the sessionUID
+     * @return the weight of the session, at least 1
+     */
+    long weigh(String user, String sessionUID) {
+        SessionIndex index = indexes.get(user);
+        int length = index == null ? 0 : index.getLength(user, sessionUID);
+        if (length > 0) {
+            return length;
+        }
+        JSONObject session = users.getOrDefault(user, Map.of()).get(sessionUID);
+        return session == null ? 1 : weigh(session);
+    }
+
+    /**
+     * Check whether the session is parsed with a summary, without parsing it. The summary may be stale, and the
+     * sessions not parsed yet are counted as without one, as parsing them dominates the work anyway.
+     *
+     * @param user       the user
+     * @param sessionUID the sessionUID
+     * @return true if the session is parsed with a summary
+     */
+    boolean hasSummary(String user, String sessionUID) {
+        JSONObject session = users.getOrDefault(user, Map.of()).get(sessionUID);
+        return session != null && session.has(SessionSummary.summaryKey);
+    }
+
+    /**
+     * Estimate the work to process the session by the length of its messages
+     *
+     * @param session the session
+     * @return the weight of the session, at least 1
+     */
+    static long weigh(JSONObject session) {
+        // roughly the length of the other fields of a session
+        long weight = sessionOverhead;
+        JSONObject messages = session.optJSONObject("messages");
+        JSONArray contents = messages == null ? null : messages.optJSONArray("contents");
+        if (contents != null) {
+            for (int i = 0; i < contents.length(); i++) {
+                JSONObject message = contents.optJSONObject(i);
+                weight += message == null ? 0 : message.optString("content").length();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Parse all the sessions of the user not parsed yet and drop the index of the user, so that the snapshot indexed
+     * is no longer read for the user, e.g. once it is replaced by a new snapshot
+     *
+     * @param user the user
+     * @throws JSONException if a session in the snapshot is malformed
+     */
+    void parseAll(String user) throws JSONException {
+        for (String sessionUID : getSessionUIDs(user)) {
+            get(user, sessionUID);
+        }
+        indexes.remove(user);
+    }
+
+    /**
+     * Copy all the sessions of the user into the db.json layout, parsing the sessions not parsed yet.
+     * Used to write the snapshot of the user.
+     *
+     * @param user the user
+     * @return the sessions, a map of sessionUID and session
+     */
+    JSONObject toJSON(String user) {
+        JSONObject sessions = new JSONObject();
+        for (String sessionUID : getSessionUIDs(user)) {
+            sessions.put(sessionUID, get(user, sessionUID));
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SessionSummary class derives the word counts of a session once, and stores them in the session under
+ * {@link #summaryKey}, so that profiling a session again does not tokenize its messages.
+ * <p>
+ * The summary holds the counts of the words of the messages not in the stopwords, a stamp and a hash. The stamp
+ * covers the stopwords, the number of messages and the length of each content, so checking it on a read touches
+ * each message once but none of its characters. The hash covers every character of the contents, and is checked
+ * on the write path only: setting a session summarizes it again, the other mutations never change the messages,
+ * and writing a snapshot summarizes again the sessions whose hash differs, e.g. the ones edited outside the
+ * program with the same lengths. A summary whose stamp differs is stale and the words are tokenized again.
+ * The other statistics of a profile are read from the fields of the session directly, which is already cheap.
+ */
+public class SessionSummary {
+    /**
+     * The key of the summary in the session
+     */
+    static final String summaryKey = "summary";
+
+    /**
+     * Mix a value into a 64-bit FNV-1a hash
+     *
+     * @param hash  the hash so far
+     * @param value the value
+     * @return the hash with the value
+     */
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Finish a hash with the finalizer of MurmurHash3, so that every bit depends on every value mixed in
+     *
+     * @param hash the hash
+     * @return the finished hash
+     */
+    private static long finish(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Stamp the messages of the session with the stopwords, by the number of messages and the length of each
+     * content only
+     *
+     * @param session   the session contains messages
+     * @param stopwords the stopwords the words are filtered by
+     * @return the stamp
+     */
+    static long contentStamp(JSONObject session, StopwordSet stopwords) {
+        JSONArray contents = session.getJSONObject("messages").getJSONArray("contents");
+        long hash = mix(stopwords.fingerprint(), contents.length());
+        for (int i = 0; i < contents.length(); i++) {
+            hash = mix(hash, contents.getJSONObject(i).getString("content").length());
+        }
+        return finish(hash);
+    }
+
+    /**
+     * Hash the contents of the messages of the session with the stopwords
+     *
+     * @param session   the session contains messages
+     * @param stopwords the stopwords the words are filtered by
+     * @return the hash as hex
+     */
+    static String contentHash(JSONObject session, StopwordSet stopwords) {
+        JSONArray contents = session.getJSONObject("messages").getJSONArray("contents");
+        long hash = stopwords.fingerprint();
+        for (int i = 0; i < contents.length(); i++) {
+            String content = contents.getJSONObject(i).getString("content");
+            for (int j = 0; j < content.length(); j++) {
+                hash = mix(hash, content.charAt(j));
+            }
+            // the length ends each content, so moving chars between two contents changes the hash
+            hash = mix(hash, content.length());
+        }
+        return Long.toHexString(finish(hash));
+    }
+
+    /**
+     * Summarize the session by tokenizing its messages
+     *
+     * @param session   the session contains messages
+     * @param stopwords the stopwords to filter the words by
+     * @return the summary
+     */
+    static JSONObject summarize(JSONObject session, StopwordSet stopwords) {
+        StringIntMap counts = new StringIntMap();
+        SessionManager.tokenizeMessages(session, (token, length) -> {
+            if (!stopwords.contains(token, length)) {
+                counts.increment(token, length);
+            }
+        });
+        JSONObject words = new JSONObject();
+        counts.forEach(words::put);
+        return new JSONObject()
+                .put("stamp", contentStamp(session, stopwords))
+                .put("hash", contentHash(session, stopwords))
+                .put("words", words);
+    }
+
+    /**
+     * Copy the session with a summary, the session itself is not mutated
+     *
+     * @param session   the session
+     * @param stopwords the stopwords to filter the words by
+     * @return a shallow copy of the session with the summary
+     */
+    static JSONObject withSummary(JSONObject session, StopwordSet stopwords) {
+        JSONObject summarized = new JSONObject(session, session.keySet().toArray(new String[0]));
+        return summarized.put(summaryKey, summarize(session, stopwords));
+    }
+
+    /**
+     * Get the word counts of the summary of the session, if the stamp of the summary is up-to-date
+     *
+     * @param session   the session
+     * @param stopwords the stopwords the words should be filtered by
+     * @return the word counts, a map of word and count, or null if the session has no summary or it is stale
+     */
+    static JSONObject getWords(JSONObject session, StopwordSet stopwords) {
+        JSONObject summary = session.optJSONObject(summaryKey);
+        if (summary == null || !summary.has("stamp") || summary.getLong("stamp") != contentStamp(session, stopwords)) {
+            return null;
+        }
+        return summary.optJSONObject("words");
+    }
+
+    /**
+     * Check whether the session has a summary of its current contents, comparing every character by the hash.
+     * Done on the write path, see {@link SessionManager#summarizeSessions}.
+     *
+     * @param session   the session
+     * @param stopwords the stopwords the words should be filtered by
+     * @return true if both the stamp and the hash of the summary are up-to-date
+     */
+    static boolean isUpToDate(JSONObject session, StopwordSet stopwords) {
+        return getWords(session, stopwords) != null
+                && session.getJSONObject(summaryKey).optString("hash").equals(contentHash(session, stopwords));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * SnapshotReader class reads a database snapshot of the db.json layout, {user: {sessionUID: session}}, as a stream
+ * of session events.
+ * <p>
+ * The snapshot is scanned sequentially by {@link SnapshotScanner}, the same as {@link SessionIndex}. The text of a
+ * session is handed to the handler as it ends, so only one session is held in memory at a time whatever the size of
+ * the snapshot, and the sessions filtered out are skipped without being decoded.
+ */
+public class SnapshotReader {
+    /**
+     * Receiver of the sessions read
+     */
+    @FunctionalInterface
+    interface SessionHandler {
+        /**
+         * Receive a session
+         *
+         * @param user       the user of the session
+         * @param sessionUID the sessionUID
+         * @param session    the JSON text of the session
+         * @throws InterruptedException if interrupted while handing the session over
+         */
+        void accept(String user, String sessionUID, String session) throws InterruptedException;
+    }
+
+    /**
+     * Receiver of the sessions read in chunks
+     */
+    @FunctionalInterface
+    interface ChunkHandler {
+        /**
+         * Receive a chunk of sessions
+         *
+         * @param chunk the users and JSON texts of the sessions, never empty
+         * @throws InterruptedException if interrupted while handing the chunk over
+         */
+        void accept(List<Map.Entry<String, String>> chunk) throws InterruptedException;
+    }
+
+    /**
+     * The scanner of the snapshot
+     */
+    private final SnapshotScanner scanner;
+
+    /**
+     * Constructor of SnapshotReader
+     *
+     * @param in the snapshot, not closed by the reader
+     */
+    SnapshotReader(InputStream in) {
+        this.scanner = new SnapshotScanner(in);
+    }
+
+    /**
+     * Read the sessions of the snapshots one after another, and hand them over in chunks
+     *
+     * @param snapshots the paths to the snapshots
+     * @param filter    whether a session given its user and sessionUID is wanted
+     * @param chunkSize the number of sessions in a chunk, only the last chunk may be smaller
+     * @param handler   the receiver of the chunks of the sessions wanted, in the order of the snapshots
+     * @throws IOException          if a snapshot cannot be read
+     * @throws JSONException        if a snapshot is malformed
+     * @throws InterruptedException if the handler is interrupted
+     */
+    static void readChunks(Collection<Path> snapshots, BiPredicate<String, String> filter, int chunkSize,
+                           ChunkHandler handler) throws IOException, JSONException, InterruptedException {
+        List<Map.Entry<String, String>> pending = new ArrayList<>(chunkSize);
+        for (Path snapshot : snapshots) {
+            try (InputStream in = Files.newInputStream(snapshot)) {
+                new SnapshotReader(in).read(filter, (user, sessionUID, session) -> {
+                    pending.add(Map.entry(user, session));
+                    if (pending.size() == chunkSize) {
+                        handler.accept(List.copyOf(pending));
+                        pending.clear();
+                    }
+                });
+            }
+        }
+        if (!pending.isEmpty()) {
+            handler.accept(List.copyOf(pending));
+        }
+    }
+
+    /**
+     * Read all the sessions of the snapshot
+     *
+     * @param filter  whether a session given its user and sessionUID is wanted
+     * @param handler the receiver of the sessions wanted, in the order of the snapshot
+     * @throws IOException          if the snapshot cannot be read
+     * @throws JSONException        if the snapshot is malformed
+     * @throws InterruptedException if the handler is interrupted
+     */
+    void read(BiPredicate<String, String> filter, SessionHandler handler)
+            throws IOException, JSONException, InterruptedException {
+        scanner.scan(filter, (user, sessionUID, offset, length, session) -> {
+            if (session != null) {
+                handler.accept(user, sessionUID, session);
+            }
+        });
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BiPredicate;
+
+/**
+ * SnapshotScanner class scans a database snapshot of the db.json layout, {user: {sessionUID: session}}, shared by
+ * {@link SessionIndex} and {@link SnapshotReader}.
+ * <p>
+ * The snapshot is read sequentially through a small buffer, and only the structure of the top two levels is
+ * recognized: the keys are decoded, and a session is skipped as a whole by matching its brackets outside of the
+ * strings. The visitor receives the byte offset and length of every session, and the text of the sessions kept,
+ * so only one session is held in memory at a time whatever the size of the snapshot.
+ */
+public class SnapshotScanner {
+    /**
+     * Receiver of the users and sessions scanned
+     */
+    @FunctionalInterface
+    interface Visitor {
+        /**
+         * Receive a user, before its sessions
+         *
+         * @param user the user
+         */
+        default void acceptUser(String user) {
+            // most visitors only need the sessions
+        }
+
+        /**
+         * Receive a session
+         *
+         * @param user       the user of the session
+         * @param sessionUID the sessionUID
+         * @param offset     the byte offset of the session in the snapshot
+         * @param length     the length of the session in bytes
+         * @param session    the JSON text of the session if kept, or null
+         * @throws InterruptedException if interrupted while handing the session over
+         */
+        void acceptSession(String user, String sessionUID, long offset, int length, String session)
+                throws InterruptedException;
+    }
+
+    /**
+     * The size of the read buffer in bytes
+     */
+    static final int bufferSize = 1 << 16;
+
+    /**
+     * The snapshot
+     */
+    private final InputStream in;
+
+    /**
+     * The read buffer
+     */
+    private final byte[] buffer = new byte[bufferSize];
+
+    /**
+     * The byte offset of the start of the buffer in the snapshot
+     */
+    private long bufferOffset;
+
+    /**
+     * The position of the next byte in the buffer
+     */
+    private int pos;
+
+    /**
+     * The number of bytes in the buffer
+     */
+    private int limit;
+
+    /**
+     * The bytes of the current key or session, reused across them
+     */
+    private byte[] value = new byte[bufferSize];
+
+    /**
+     * The number of bytes of the current key or session
+     */
+    private int length;
+
+    /**
+     * Constructor of SnapshotScanner
+     *
+     * @param in the snapshot, not closed by the scanner
+     */
+    SnapshotScanner(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Scan all the users and sessions of the snapshot
+     *
+     * @param keep    whether the text of a session given its user and sessionUID is wanted
+     * @param visitor the receiver of the users and sessions, in the order of the snapshot
+     * @throws IOException          if the snapshot cannot be read
+     * @throws JSONException        if the snapshot is malformed
+     * @throws InterruptedException if the visitor is interrupted
+     */
+    void scan(BiPredicate<String, String> keep, Visitor visitor)
+            throws IOException, JSONException, InterruptedException {
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            return;
+        }
+        while (true) {
+            String user = readKey();
+            visitor.acceptUser(user);
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                next();
+            } else {
+                while (true) {
+                    String sessionUID = readKey();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    boolean kept = keep.test(user, sessionUID);
+                    long offset = position();
+                    length = 0;
+                    readValue(kept);
+                    String session = kept ? new String(value, 0, length, StandardCharsets.UTF_8) : null;
+                    visitor.acceptSession(user, sessionUID, offset, (int) (position() - offset), session);
+                    skipWhitespace();
+                    if (endOfObject()) {
+                        break;
+                    }
+                    skipWhitespace();
+                }
+            }
+            skipWhitespace();
+            if (endOfObject()) {
+                return;
+            }
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * Get the byte offset of the next byte in the snapshot
+     *
+     * @return the offset
+     */
+    private long position() {
+        return bufferOffset + pos;
+    }
+
+    /**
+     * Consume the byte after a member of an object
+     *
+     * @return true if the object ends, false if another member follows
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the byte is neither ',' nor '}'
+     */
+    private boolean endOfObject() throws IOException, JSONException {
+        byte b = next();
+        if (b != ',' && b != '}') {
+            throw new JSONException("Expected ',' or '}' at byte " + (position() - 1) + " of the database");
+        }
+        return b == '}';
+    }
+
+    /**
+     * Get the next byte without consuming it, refilling the buffer if needed
+     *
+     * @return the byte as unsigned, or -1 at the end of the snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    private int peek() throws IOException {
+        if (pos == limit) {
+            bufferOffset += limit;
+            pos = 0;
+            limit = Math.max(in.read(buffer), 0);
+        }
+        return pos < limit ? buffer[pos] & 0xff : -1;
+    }
+
+    /**
+     * Consume the next byte
+     *
+     * @return the byte
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the snapshot ends
+     */
+    private byte next() throws IOException, JSONException {
+        if (peek() < 0) {
+            throw new JSONException("Unexpected end of the database");
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Consume the next byte and check it
+     *
+     * @param expected the expected byte
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the byte is not the expected one
+     */
+    private void expect(char expected) throws IOException, JSONException {
+        if (next() != expected) {
+            throw new JSONException("Expected '" + expected + "' at byte " + (position() - 1) + " of the database");
+        }
+    }
+
+    /**
+     * Skip the whitespaces
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    private void skipWhitespace() throws IOException {
+        int b = peek();
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+            pos++;
+            b = peek();
+        }
+    }
+
+    /**
+     * Consume the next byte, and keep it in the current value if wanted
+     *
+     * @param keep whether to keep the byte
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the snapshot ends
+     */
+    private void consume(boolean keep) throws IOException, JSONException {
+        byte b = next();
+        if (keep) {
+            if (length == value.length) {
+                value = Arrays.copyOf(value, length * 2);
+            }
+            value[length++] = b;
+        }
+    }
+
+    /**
+     * Read a string, all the multibyte UTF-8 characters are read as a whole since none of their bytes is ASCII
+     *
+     * @param keep whether to keep the string in the current value
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the string is malformed
+     */
+    private void readString(boolean keep) throws IOException, JSONException {
+        if (peek() != '"') {
+            throw new JSONException("Expected '\"' at byte " + position() + " of the database");
+        }
+        consume(keep);
+        while (true) {
+            int b = peek();
+            if (b == '\\') {
+                consume(keep);
+            } else if (b == '"') {
+                consume(keep);
+                return;
+            }
+            consume(keep);
+        }
+    }
+
+    /**
+     * Read a key and decode it, escaped keys go through the JSON tokenizer
+     *
+     * @return the key
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the key is malformed
+     */
+    private String readKey() throws IOException, JSONException {
+        length = 0;
+        readString(true);
+        String raw = new String(value, 0, length, StandardCharsets.UTF_8);
+        if (raw.indexOf('\\') < 0) {
+            return raw.substring(1, raw.length() - 1);
+        }
+        return (String) new JSONTokener(raw).nextValue();
+    }
+
+    /**
+     * Read a JSON value of any type
+     *
+     * @param keep whether to keep the value in the current value
+     * @throws IOException   if the snapshot cannot be read
+     * @throws JSONException if the value is malformed
+     */
+    private void readValue(boolean keep) throws IOException, JSONException {
+        int depth = 0;
+        while (true) {
+            int b = peek();
+            if (b == '"') {
+                readString(keep);
+                if (depth == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    // the end of a number, boolean or null enclosed by its parent
+                    return;
+                }
+                depth--;
+                if (depth == 0) {
+                    consume(keep);
+                    return;
+                }
+            } else if (depth == 0 && (b == ',' || b == ' ' || b == '\n' || b == '\r' || b == '\t' || b < 0)) {
+                // the end of a number, boolean or null
+                return;
+            }
+            consume(keep);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * SpaceSavingSketch class finds the most frequent strings of a stream approximately in fixed memory, with the
+ * Space-Saving algorithm.
+ * <p>
+ * The sketch keeps a fixed number of counters. A string already counted increments its counter, a new string takes
+ * over the counter with the lowest count and starts from that count plus one. So a count never underestimates, and
+ * overestimates by at most the number of strings over the number of counters. Any string more frequent than that
+ * is always kept. Two sketches merge into a sketch of the same size and the same error bound.
+ * A sketch is not thread-safe.
+ */
+public class SpaceSavingSketch {
+    /**
+     * The number of counters
+     */
+    private final int capacity;
+
+    /**
+     * The strings of the counters
+     */
+    private final String[] keys;
+
+    /**
+     * The counts of the counters, an upper bound of the real count
+     */
+    private final long[] counts;
+
+    /**
+     * The counters in a heap by count, with the lowest count at the root
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each counter in the heap
+     */
+    private final int[] heapPos;
+
+    /**
+     * The counters of the strings, a map of string and counter plus one
+     */
+    private StringIntMap index = new StringIntMap();
+
+    /**
+     * The number of counters in use
+     */
+    private int size;
+
+    /**
+     * The number of strings offered
+     */
+    private long total;
+
+    /**
+     * Constructor of SpaceSavingSketch
+     *
+     * @param capacity the number of counters
+     */
+    SpaceSavingSketch(int capacity) {
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPos = new int[capacity];
+    }
+
+    /**
+     * Get the number of counters giving a relative error bound
+     *
+     * @param error the bound of the overestimation of a count, relative to the number of strings
+     * @return the number of counters
+     */
+    static int capacityOf(double error) {
+        return (int) Math.ceil(1 / error);
+    }
+
+    /**
+     * Count a string in a char buffer once, the string is only created if it takes over a counter
+     *
+     * @param word   the buffer holding the string at its start
+     * @param length the length of the string
+     */
+    void offer(char[] word, int length) {
+        int counter = index.get(word, length) - 1;
+        total++;
+        if (counter >= 0) {
+            counts[counter]++;
+            siftDown(heapPos[counter]);
+            return;
+        }
+        take(new String(word, 0, length), 1);
+    }
+
+    /**
+     * Count a string a number of times at once, the same as offering it that many times in a row
+     *
+     * @param word  the string
+     * @param count the number of times
+     */
+    void offer(String word, int count) {
+        int counter = index.get(word) - 1;
+        total += count;
+        if (counter >= 0) {
+            counts[counter] += count;
+            siftDown(heapPos[counter]);
+            return;
+        }
+        take(word, count);
+    }
+
+    /**
+     * Let a string not counted take a counter with an initial count, the lowest counter if all are in use
+     *
+     * @param key   the string
+     * @param count the count of the string
+     */
+    private void take(String key, long count) {
+        int counter;
+        if (size < capacity) {
+            counter = size;
+            heap[size] = counter;
+            heapPos[counter] = size;
+            size++;
+        } else {
+            counter = heap[0];
+            index.add(keys[counter], -(counter + 1));
+            count += counts[counter];
+        }
+        keys[counter] = key;
+        counts[counter] = count;
+        index.add(key, counter + 1);
+        siftUp(heapPos[counter]);
+        siftDown(heapPos[counter]);
+    }
+
+    /**
+     * Merge another sketch into this one. A string missing in a full sketch may have been counted up to its lowest
+     * count, so that count is added for it, then the highest counts are kept.
+     *
+     * @param other the other sketch, never modified
+     */
+    void merge(SpaceSavingSketch other) {
+        long missing = size < capacity ? 0 : counts[heap[0]];
+        long otherMissing = other.size < other.capacity ? 0 : other.counts[other.heap[0]];
+        String[] mergedKeys = Arrays.copyOf(keys, size + other.size);
+        long[] mergedCounts = Arrays.copyOf(counts, size + other.size);
+        int numMerged = size;
+        for (int counter = 0; counter < size; counter++) {
+            mergedCounts[counter] += otherMissing;
+        }
+        for (int counter = 0; counter < other.size; counter++) {
+            int merged = index.get(other.keys[counter]) - 1;
+            if (merged >= 0) {
+                // counted in both, the count of the other replaces the guess
+                mergedCounts[merged] += other.counts[counter] - otherMissing;
+            } else {
+                mergedKeys[numMerged] = other.keys[counter];
+                mergedCounts[numMerged++] = other.counts[counter] + missing;
+            }
+        }
+        Integer[] order = new Integer[numMerged];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> mergedCounts[i]).reversed());
+        total += other.total;
+        size = 0;
+        index = new StringIntMap();
+        for (int i = 0; i < Math.min(capacity, numMerged); i++) {
+            take(mergedKeys[order[i]], mergedCounts[order[i]]);
+        }
+    }
+
+    /**
+     * Get the number of strings offered
+     *
+     * @return the number of strings
+     */
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the bound of the overestimation of any count
+     *
+     * @return the bound
+     */
+    long getErrorBound() {
+        return total / capacity;
+    }
+
+    /**
+     * Perform an action on the top N strings and their estimated counts, ranked by the higher count first, then by
+     * the greater string, the same order as {@link StringIntMap#forEachTop}
+     *
+     * @param topN   the number of top strings
+     * @param action the action, called in the order of the ranks
+     */
+    void forEachTop(int topN, ObjLongConsumer<String> action) {
+        // the counts are ranked as longs, a merged count may exceed an int, and there are only as many as counters
+        Integer[] counters = new Integer[size];
+        Arrays.setAll(counters, counter -> counter);
+        Arrays.sort(counters, Comparator.<Integer>comparingLong(counter -> counts[counter]).reversed()
+                .thenComparing(counter -> keys[counter], Comparator.reverseOrder()));
+        for (int i = 0; i < Math.min(topN, size); i++) {
+            action.accept(keys[counters[i]], counts[counters[i]]);
+        }
+    }
+
+    /**
+     * Move the counter at a position of the heap up to its place
+     *
+     * @param pos the position
+     */
+    private void siftUp(int pos) {
+        while (pos > 0 && counts[heap[(pos - 1) / 2]] > counts[heap[pos]]) {
+            swap(pos, (pos - 1) / 2);
+            pos = (pos - 1) / 2;
+        }
+    }
+
+    /**
+     * Move the counter at a position of the heap down to its place
+     *
+     * @param pos the position
+     */
+    private void siftDown(int pos) {
+        while (2 * pos + 1 < size) {
+            int child = 2 * pos + 1;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[pos]] <= counts[heap[child]]) {
+                return;
+            }
+            swap(pos, child);
+            pos = child;
+        }
+    }
+
+    /**
+     * Swap two positions of the heap
+     *
+     * @param pos1 the position
+     * @param pos2 the other position
+     */
+    private void swap(int pos1, int pos2) {
+        int counter = heap[pos1];
+        heap[pos1] = heap[pos2];
+        heap[pos2] = counter;
+        heapPos[heap[pos1]] = pos1;
+        heapPos[heap[pos2]] = pos2;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * StopwordSet class is an immutable set of stopwords, which can be probed with a word in a char buffer.
+ * <p>
+ * The words are packed into one char array and hashed into an open addressing table of at most half load,
+ * so a probe computes one hash and compares a couple of slots whatever the number of stopwords, without creating
+ * a string. The set is never mutated after it is built, so it is shared by all threads without locking.
+ */
+public class StopwordSet {
+    /**
+     * All the words packed one after another
+     */
+    private final char[] chars;
+
+    /**
+     * The slots of the table, the start of the word in chars, or -1 if the slot is empty
+     */
+    private final int[] starts;
+
+    /**
+     * The slots of the table, the length of the word
+     */
+    private final int[] lengths;
+
+    /**
+     * The number of words
+     */
+    private final int size;
+
+    /**
+     * A hash of all the words regardless of their order, see {@link #fingerprint()}
+     */
+    private final long fingerprint;
+
+    /**
+     * The modification time of the file the words are loaded from, or null if not loaded from a file
+     */
+    private final FileTime modified;
+
+    /**
+     * Constructor of StopwordSet
+     *
+     * @param words    the words, duplicates are kept once
+     * @param modified the modification time of the file the words are loaded from, or null
+     */
+    private StopwordSet(Collection<String> words, FileTime modified) {
+        this.modified = modified;
+        int capacity = Integer.highestOneBit(Math.max(words.size(), 1) * 4 - 1);
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        Arrays.fill(starts, -1);
+        this.chars = new char[words.stream().mapToInt(String::length).sum()];
+        int end = 0;
+        int count = 0;
+        long hash = 0;
+        for (String word : words) {
+            word.getChars(0, word.length(), chars, end);
+            int slot = find(chars, end, word.length());
+            if (starts[slot] < 0) {
+                starts[slot] = end;
+                lengths[slot] = word.length();
+                end += word.length();
+                count++;
+                hash += HyperLogLog.hash(word);
+            }
+        }
+        this.size = count;
+        this.fingerprint = hash;
+    }
+
+    /**
+     * Build a set of the words
+     *
+     * @param words the words
+     * @return the set
+     */
+    static StopwordSet of(Collection<String> words) {
+        return new StopwordSet(words, null);
+    }
+
+    /**
+     * Load the set from a file of one word per line, the blank lines and the comment lines starting with # are
+     * skipped
+     *
+     * @param path the path to the file
+     * @return the set
+     * @throws IOException if the file cannot be read
+     */
+    static StopwordSet load(Path path) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        List<String> words = Files.readAllLines(path).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .toList();
+        return new StopwordSet(words, modified);
+    }
+
+    /**
+     * Find the slot of a word, the slot holding the word or the empty slot it would be put in
+     *
+     * @param word   the buffer holding the word
+     * @param offset the start of the word in the buffer
+     * @param length the length of the word
+     * @return the slot
+     */
+    private int find(char[] word, int offset, int length) {
+        // the same hash as String.hashCode, spread so that the low bits depend on the whole word
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        int mask = starts.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (starts[slot] >= 0 && !Arrays.equals(chars, starts[slot], starts[slot] + lengths[slot],
+                word, offset, offset + length)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Check whether the word is a stopword
+     *
+     * @param word   the buffer holding the word at its start
+     * @param length the length of the word
+     * @return true if the word is a stopword
+     */
+    boolean contains(char[] word, int length) {
+        return starts[find(word, 0, length)] >= 0;
+    }
+
+    /**
+     * Check whether the word is a stopword
+     *
+     * @param word the word
+     * @return true if the word is a stopword
+     */
+    boolean contains(String word) {
+        return contains(word.toCharArray(), word.length());
+    }
+
+    /**
+     * Get the number of stopwords
+     *
+     * @return the number of stopwords
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get a hash of all the words, two sets of the same words have the same fingerprint
+     *
+     * @return the fingerprint
+     */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Check whether the file the set is loaded from has been modified since
+     *
+     * @param path the path to the file
+     * @return true if the file has a different modification time, false if it is the same or cannot be read
+     */
+    boolean isStale(Path path) {
+        try {
+            return !Files.getLastModifiedTime(path).equals(modified);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * StringIntMap class counts strings in an open addressing table with linear probing.
+ * <p>
+ * The counts are primitive ints, and a string can be counted from a char buffer, which creates the string only
+ * the first time it is counted. Merging adds the counts of another map in place. A string whose count drops to 0 is
+ * removed, so the map only holds the strings counted. A map is not thread-safe.
+ */
+public class StringIntMap {
+    /**
+     * The initial number of slots, a power of two
+     */
+    static final int initialCapacity = 16;
+
+    /**
+     * The keys of the slots, null if the slot is empty
+     */
+    private String[] keys = new String[initialCapacity];
+
+    /**
+     * The hashes of the keys of the slots, the same as String.hashCode
+     */
+    private int[] hashes = new int[initialCapacity];
+
+    /**
+     * The counts of the slots
+     */
+    private int[] counts = new int[initialCapacity];
+
+    /**
+     * The number of keys
+     */
+    private int size;
+
+    /**
+     * Get the first slot to probe for a hash
+     *
+     * @param hash the hash
+     * @return the slot
+     */
+    private int slotOf(int hash) {
+        // spread the hash so that the low bits depend on the whole string
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * Find the slot of a key
+     *
+     * @param key  the key
+     * @param hash the hash of the key
+     * @return the slot holding the key or the empty slot it would be put in
+     */
+    private int find(String key, int hash) {
+        int mask = keys.length - 1;
+        int slot = slotOf(hash);
+        while (keys[slot] != null && (hashes[slot] != hash || !keys[slot].equals(key))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Find the slot of a key in a char buffer
+     *
+     * @param word   the buffer holding the key at its start
+     * @param length the length of the key
+     * @param hash   the hash of the key
+     * @return the slot holding the key or the empty slot it would be put in
+     */
+    private int find(char[] word, int length, int hash) {
+        int mask = keys.length - 1;
+        int slot = slotOf(hash);
+        while (keys[slot] != null && (hashes[slot] != hash || !equals(keys[slot], word, length))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Hash a key in a char buffer, the same as String.hashCode so that the keys added either way are found
+     * either way
+     *
+     * @param word   the buffer holding the key at its start
+     * @param length the length of the key
+     * @return the hash
+     */
+    private static int hash(char[] word, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Check whether a string equals the key in a char buffer
+     *
+     * @param key    the string
+     * @param word   the buffer holding the key at its start
+     * @param length the length of the key
+     * @return true if they are equal
+     */
+    private static boolean equals(String key, char[] word, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the count of a key
+     *
+     * @param key the key
+     * @return the count, 0 if the key is not counted
+     */
+    int get(String key) {
+        int slot = find(key, key.hashCode());
+        return keys[slot] == null ? 0 : counts[slot];
+    }
+
+    /**
+     * Get the count of a key in a char buffer
+     *
+     * @param word   the buffer holding the key at its start
+     * @param length the length of the key
+     * @return the count, 0 if the key is not counted
+     */
+    int get(char[] word, int length) {
+        int slot = find(word, length, hash(word, length));
+        return keys[slot] == null ? 0 : counts[slot];
+    }
+
+    /**
+     * Add to the count of a key, the key is removed if its count drops to 0
+     *
+     * @param key   the key
+     * @param delta the count to add
+     */
+    void add(String key, int delta) {
+        int hash = key.hashCode();
+        int slot = find(key, hash);
+        if (keys[slot] == null) {
+            insert(slot, key, hash, delta);
+        } else {
+            update(slot, delta);
+        }
+    }
+
+    /**
+     * Count a key in a char buffer once, the string of the key is only created if the key is not counted yet
+     *
+     * @param word   the buffer holding the key at its start
+     * @param length the length of the key
+     */
+    void increment(char[] word, int length) {
+        int hash = hash(word, length);
+        int slot = find(word, length, hash);
+        if (keys[slot] == null) {
+            insert(slot, new String(word, 0, length), hash, 1);
+        } else {
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Add or subtract all the counts of another map in place
+     *
+     * @param other the other map, never modified
+     * @param sign  1 to add or -1 to subtract
+     */
+    void addAll(StringIntMap other, int sign) {
+        for (int i = 0; i < other.keys.length; i++) {
+            String key = other.keys[i];
+            if (key == null) {
+                continue;
+            }
+            int slot = find(key, other.hashes[i]);
+            if (keys[slot] == null) {
+                insert(slot, key, other.hashes[i], sign * other.counts[i]);
+            } else {
+                update(slot, sign * other.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Put a new key into an empty slot
+     *
+     * @param slot  the empty slot found for the key
+     * @param key   the key
+     * @param hash  the hash of the key
+     * @param count the count, nothing is put if it is 0
+     */
+    private void insert(int slot, String key, int hash, int count) {
+        if (count == 0) {
+            return;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        counts[slot] = count;
+        // keep the table at most half full, so that the probes stay short
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Add to the count of the key in a slot, removing the key if its count drops to 0
+     *
+     * @param slot  the slot
+     * @param delta the count to add
+     */
+    private void update(int slot, int delta) {
+        counts[slot] += delta;
+        if (counts[slot] == 0) {
+            remove(slot);
+        }
+    }
+
+    /**
+     * Remove the key in a slot, shifting back the keys probed past it so that no probe stops early
+     *
+     * @param slot the slot
+     */
+    private void remove(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            // a key can move back to the hole only if the hole is between its first slot and its slot
+            int home = slotOf(hashes[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                hashes[hole] = hashes[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    /**
+     * Double the number of slots and put all the keys again
+     */
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        keys = new String[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = find(oldKeys[i], oldHashes[i]);
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Get the number of keys
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the key in a slot ranks before the key in another slot, by the higher count first, then by the
+     * greater key
+     *
+     * @param slot1 the slot
+     * @param slot2 the other slot
+     * @return true if the key in slot1 ranks before the key in slot2
+     */
+    private boolean ranksBefore(int slot1, int slot2) {
+        if (counts[slot1] != counts[slot2]) {
+            return counts[slot1] > counts[slot2];
+        }
+        return keys[slot1].compareTo(keys[slot2]) > 0;
+    }
+
+    /**
+     * Perform an action on the top N keys and their counts, ranked by the higher count first, then by the greater
+     * key. The keys are selected with a heap of N slots, so only the top N keys are ever ordered.
+     *
+     * @param topN   the number of top keys
+     * @param action the action, called in the order of the ranks
+     */
+    void forEachTop(int topN, ObjIntConsumer<String> action) {
+        // a heap of the slots of the top keys so far, with the lowest ranked at the root
+        int[] heap = new int[Math.min(topN, size)];
+        int heapSize = 0;
+        for (int slot = 0; slot < keys.length && heap.length > 0; slot++) {
+            if (keys[slot] == null) {
+                continue;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (ranksBefore(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+        // pop the lowest ranked to the end, which leaves the heap sorted from the highest ranked
+        for (int end = heapSize - 1; end > 0; end--) {
+            int root = heap[0];
+            heap[0] = heap[end];
+            heap[end] = root;
+            siftDown(heap, end);
+        }
+        for (int i = 0; i < heapSize; i++) {
+            action.accept(keys[heap[i]], counts[heap[i]]);
+        }
+    }
+
+    /**
+     * Move the slot at a position of the heap up to its place
+     *
+     * @param heap the heap of slots
+     * @param pos  the position
+     */
+    private void siftUp(int[] heap, int pos) {
+        while (pos > 0 && ranksBefore(heap[(pos - 1) / 2], heap[pos])) {
+            int parent = (pos - 1) / 2;
+            int slot = heap[pos];
+            heap[pos] = heap[parent];
+            heap[parent] = slot;
+            pos = parent;
+        }
+    }
+
+    /**
+     * Move the slot at the root of the heap down to its place
+     *
+     * @param heap     the heap of slots
+     * @param heapSize the number of slots in the heap
+     */
+    private void siftDown(int[] heap, int heapSize) {
+        int pos = 0;
+        while (2 * pos + 1 < heapSize) {
+            int child = 2 * pos + 1;
+            if (child + 1 < heapSize && ranksBefore(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!ranksBefore(heap[pos], heap[child])) {
+                return;
+            }
+            int slot = heap[pos];
+            heap[pos] = heap[child];
+            heap[child] = slot;
+            pos = child;
+        }
+    }
+
+    /**
+     * Perform an action on every key and its count, in no particular order
+     *
+     * @param action the action
+     */
+    void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], counts[i]);
+            }
+        }
+    }
+}
@@ -25,6 +25,11 @@ public class Utils {
      */
     public static final int SoD = 86400;
 
+    /**
+     * The formatter of the months, shared as it is immutable and thread-safe
+     */
+    private static final DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("yyyy-MM");
+
     /**
      * Print the content in green
      *
@@ -88,6 +93,16 @@ public class Utils {
         }
     }
 
+    /**
+     * Get the month of the time
+     *
+     * @param time the epoch time
+     * @return the month, e.g. 2025-05
+     */
+    public static String getMonth(long time) {
+        return LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC).format(monthFormatter);
+    }
+
     /**
      * Get the duration between two times in minutes
      * @param startTime the start time
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HyperLogLogTest {
+    /**
+     * Create a sketch counting a range of strings
+     *
+     * @param from the first string, inclusive
+     * @param to   the last string, exclusive
+     * @return the sketch
+     */
+    static HyperLogLog sketchOf(int from, int to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            sketch.add(HyperLogLog.hash("user" + i));
+        }
+        return sketch;
+    }
+
+    @Test
+    public void testEstimate() {
+        for (int size : new int[]{0, 1, 10, HyperLogLog.sparseLimit, HyperLogLog.sparseLimit + 1, 1000, 100000}) {
+            // the standard error is 1.04 / sqrt(numRegisters), about 1.6%, so 5% is over three standard errors
+            assertEquals(size, sketchOf(0, size).estimate(), Math.max(1, size * 0.05), "size " + size);
+        }
+    }
+
+    @Test
+    public void testAddAgain() {
+        HyperLogLog sketch = sketchOf(0, 50);
+        long estimate = sketch.estimate();
+        String encoded = sketch.encode();
+        for (int i = 0; i < 50; i++) {
+            sketch.add(HyperLogLog.hash("user" + i));
+        }
+        assertEquals(estimate, sketch.estimate());
+        assertEquals(encoded, sketch.encode());
+    }
+
+    @Test
+    public void testHashBuffer() {
+        char[] buffer = "user42 and more".toCharArray();
+        assertEquals(HyperLogLog.hash("user42"), HyperLogLog.hash(buffer, 6));
+    }
+
+    @Test
+    public void testMerge() {
+        // sparse into sparse, sparse into dense, dense into sparse and dense into dense, each with an overlap
+        int[][] ranges = {{0, 30, 20, 50}, {0, 1000, 990, 1010}, {0, 10, 5, 1000}, {0, 5000, 2500, 8000}};
+        for (int[] range : ranges) {
+            HyperLogLog merged = sketchOf(range[0], range[1]);
+            HyperLogLog other = sketchOf(range[2], range[3]);
+            String otherEncoded = other.encode();
+            merged.merge(other);
+            HyperLogLog union = sketchOf(range[0], range[3]);
+            assertEquals(union.estimate(), merged.estimate());
+            assertEquals(otherEncoded, other.encode());
+        }
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        for (int size : new int[]{0, 1, HyperLogLog.sparseLimit, HyperLogLog.sparseLimit + 1, 10000}) {
+            HyperLogLog sketch = sketchOf(0, size);
+            HyperLogLog decoded = HyperLogLog.decode(sketch.encode());
+            assertEquals(sketch.encode(), decoded.encode());
+            assertEquals(sketch.estimate(), decoded.estimate());
+            // the decoded sketch keeps counting as the original does
+            sketch.add(HyperLogLog.hash("extra"));
+            decoded.add(HyperLogLog.hash("extra"));
+            assertEquals(sketch.estimate(), decoded.estimate());
+        }
+        // a sparse sketch is encoded as its hashes, far shorter than the registers
+        assertTrue(sketchOf(0, 10).encode().length() < HyperLogLog.numRegisters / 10);
+    }
+
+    @Test
+    public void testDecodeMalformed() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.decode(encoder.encodeToString(new byte[7])));
+        assertThrows(IllegalArgumentException.class,
+                () -> HyperLogLog.decode(encoder.encodeToString(new byte[(HyperLogLog.sparseLimit + 1) * 8])));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.decode("not base64!"));
+    }
+}
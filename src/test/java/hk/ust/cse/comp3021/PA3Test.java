@@ -6,10 +6,12 @@
 
 package hk.ust.cse.comp3021;
 
+import org.json.JSONObject;
 import org.junit.jupiter.api.*;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,9 +32,16 @@ public class PA3Test {
      */
     static long threadPoolProfileTime;
 
+    /**
+     * The profile time of admin when using a virtual thread per chunk of sessions
+     */
+    static long virtualProfileTime;
+
     @BeforeAll
     public static void setUp() {
         SessionManager.loadDatabase();
+        // summarize all the sessions before timing, so that every mode profiles the same summaries
+        SessionManager.getUsers().forEach(SessionManager::summarizeSessions);
         // get base profile time
         LocalDateTime startProfile = LocalDateTime.now();
         SessionManager.generateProfileBase("admin");
@@ -58,6 +67,18 @@ public class PA3Test {
                 (double) baseProfileTime / threadPoolProfileTime);
         System.out.printf("The thread pool profiling is %.2f times faster than the parallel profiling %n",
                 (double) parallelProfileTime / threadPoolProfileTime);
+        // get virtual thread profile time
+        startProfile = LocalDateTime.now();
+        SessionManager.generateProfileVirtual("admin");
+        endProfile = LocalDateTime.now();
+        virtualProfileTime = Duration.between(startProfile, endProfile).toMillis();
+        System.out.printf("The virtual thread profiling cost %s ms %n", Utils.toInfo(String.valueOf(virtualProfileTime)));
+        System.out.printf("The virtual thread profiling is %.2f times faster than the base profiling %n",
+                (double) baseProfileTime / virtualProfileTime);
+        System.out.printf("The virtual thread profiling is %.2f times faster than the parallel profiling %n",
+                (double) parallelProfileTime / virtualProfileTime);
+        System.out.printf("The virtual thread profiling is %.2f times faster than the thread pool profiling %n",
+                (double) threadPoolProfileTime / virtualProfileTime);
     }
 
     @Test
@@ -71,4 +92,26 @@ public class PA3Test {
     public void testThreadPoolProfileTime() {
         assertTrue(threadPoolProfileTime <= parallelProfileTime * 1.25);
     }
+
+    @Test
+    public void testParallelScaling() throws Exception {
+        // the sessions are split by weight, so the profile scales with the cores even if a few users own most sessions
+        JSONObject baseProfile = SessionManager.generateProfileBase("admin");
+        int numProcessors = Runtime.getRuntime().availableProcessors();
+        long serialTime = 0;
+        for (int parallelism = 1; parallelism <= numProcessors; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            LocalDateTime startProfile = LocalDateTime.now();
+            JSONObject profile = pool.submit(() -> SessionManager.generateProfileParallel("admin")).get();
+            long profileTime = Duration.between(startProfile, LocalDateTime.now()).toMillis();
+            pool.shutdown();
+            serialTime = parallelism == 1 ? profileTime : serialTime;
+            System.out.printf("The parallel profiling with %s threads cost %s ms, %.2f times faster than 1 thread %n",
+                    Utils.toInfo(String.valueOf(parallelism)), Utils.toInfo(String.valueOf(profileTime)),
+                    (double) serialTime / Math.max(profileTime, 1));
+            assertEquals(baseProfile.getInt("numSessions"), profile.getInt("numSessions"));
+            assertEquals(baseProfile.getInt("sumPromptTokens"), profile.getInt("sumPromptTokens"));
+            assertEquals(baseProfile.getJSONObject("topWords").toMap(), profile.getJSONObject("topWords").toMap());
+        }
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfileBatchTest {
+    @BeforeAll
+    public static void setUp() {
+        SessionManager.loadDatabase();
+    }
+
+    /**
+     * Compare two profiles key by key, the sums of doubles may differ in the last bits as they are added in
+     * another order
+     *
+     * @param user     the user of the profiles
+     * @param expected the profile generated for the user alone
+     * @param actual   the profile generated in the batch
+     */
+    static void assertSameProfile(String user, JSONObject expected, JSONObject actual) {
+        assertEquals(expected.keySet(), actual.keySet(), user);
+        for (String key : expected.keySet()) {
+            Object value = expected.get(key);
+            String message = user + " " + key;
+            if (value instanceof Double || value instanceof Float) {
+                double number = expected.getDouble(key);
+                assertEquals(number, actual.getDouble(key), Math.max(1, Math.abs(number)) * 1e-9, message);
+            } else if (value instanceof JSONObject object) {
+                assertEquals(object.toMap(), actual.getJSONObject(key).toMap(), message);
+            } else if (value instanceof JSONArray array) {
+                assertEquals(array.toList(), actual.getJSONArray(key).toList(), message);
+            } else {
+                assertEquals(value, actual.get(key), message);
+            }
+        }
+    }
+
+    @Test
+    public void testAllProfilesMatchPerUser() {
+        Map<String, JSONObject> profiles = SessionManager.generateAllProfiles();
+        Set<String> users = new HashSet<>(SessionManager.getUsers());
+        users.add("admin");
+        assertEquals(users, profiles.keySet());
+        for (String user : users) {
+            assertSameProfile(user, SessionManager.generateProfile(user), profiles.get(user));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileHistogramTest {
+    /**
+     * The quantiles checked by the tests
+     */
+    static final double[] quantiles = {0, 0.01, 0.5, 0.95, 0.99, 1};
+
+    /**
+     * Check that a value is within the bucket it is counted in, and that the bucket is narrow enough
+     *
+     * @param value the value
+     */
+    static void assertInBucket(long value) {
+        int bucket = QuantileHistogram.bucketOf(value);
+        long highest = QuantileHistogram.highestValueOf(bucket);
+        assertTrue(value <= highest, "value " + value);
+        assertTrue(bucket == 0 || value > QuantileHistogram.highestValueOf(bucket - 1), "value " + value);
+        assertTrue(highest - value <= value >> QuantileHistogram.subBucketBits, "value " + value);
+    }
+
+    /**
+     * Check the value at each quantile against the exact value of the sorted values
+     *
+     * @param histogram the histogram
+     * @param sorted    the values counted, sorted
+     */
+    static void assertQuantiles(QuantileHistogram histogram, long[] sorted) {
+        for (double quantile : quantiles) {
+            long exact = sorted[(int) Math.max(0, Math.ceil(quantile * sorted.length) - 1)];
+            long value = histogram.valueAt(quantile);
+            assertTrue(exact <= value && value - exact <= exact >> QuantileHistogram.subBucketBits,
+                    "quantile " + quantile + ": " + value + " for " + exact);
+        }
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            assertInBucket(value);
+        }
+        Random random = new Random(3021);
+        for (int i = 0; i < 100000; i++) {
+            assertInBucket(random.nextLong() >>> (random.nextInt(63) + 1));
+        }
+        assertInBucket(Long.MAX_VALUE);
+        assertEquals(0, QuantileHistogram.bucketOf(-5));
+        // each bucket starts right after the previous one
+        for (int bucket = 1; bucket <= QuantileHistogram.bucketOf(Long.MAX_VALUE); bucket++) {
+            long lowest = QuantileHistogram.highestValueOf(bucket - 1) + 1;
+            assertEquals(bucket, QuantileHistogram.bucketOf(lowest));
+            assertEquals(bucket, QuantileHistogram.bucketOf(QuantileHistogram.highestValueOf(bucket)));
+        }
+    }
+
+    @Test
+    public void testValueAt() {
+        assertEquals(0, new QuantileHistogram().valueAt(0.5));
+        Random random = new Random(2025);
+        long[] values = new long[10000];
+        QuantileHistogram histogram = new QuantileHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // skewed like token counts and durations, mostly small with a long tail
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.add(values[i]);
+        }
+        Arrays.sort(values);
+        assertQuantiles(histogram, values);
+    }
+
+    @Test
+    public void testAddAll() {
+        QuantileHistogram first = new QuantileHistogram();
+        QuantileHistogram second = new QuantileHistogram();
+        long[] values = new long[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 37L;
+            (i % 2 == 0 ? first : second).add(values[i]);
+        }
+        QuantileHistogram merged = new QuantileHistogram();
+        merged.addAll(first, 1);
+        merged.addAll(second, 1);
+        assertQuantiles(merged, values);
+        QuantileHistogram restored = new QuantileHistogram();
+        restored.fromJSON(merged.toJSON());
+        assertQuantiles(restored, values);
+        // subtracting the second half leaves the first half
+        merged.addAll(second, -1);
+        assertEquals(first.toJSON().toList(), merged.toJSON().toList().subList(0, first.toJSON().length()));
+        for (double quantile : quantiles) {
+            assertEquals(first.valueAt(quantile), merged.valueAt(quantile));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionCodecTest {
+    /**
+     * The directory holding the database files of each test
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Create a database with the value types found in db.json
+     *
+     * @return the database
+     */
+    static JSONObject database() {
+        JSONObject session = new JSONObject()
+                .put("description", "Zo\u00eb asks about \"quotes\" and \\ escapes")
+                .put("tags", new JSONArray().put("java").put("java").put(""))
+                .put("createTime", 1700000000000L)
+                .put("negative", -42)
+                .put("ratio", 0.25)
+                .put("parsed", new JSONObject("{\"decimal\": 3.14159, \"huge\": 123456789012345678901234567890}"))
+                .put("pinned", true)
+                .put("archived", false)
+                .put("parent", JSONObject.NULL)
+                .put("messages", new JSONArray()
+                        .put(new JSONObject().put("role", "user").put("content", "hello"))
+                        .put(new JSONObject().put("role", "assistant").put("content", "hello")));
+        return new JSONObject()
+                .put("alice", new JSONObject().put("s1", session).put("s2", new JSONObject()))
+                .put("bob", new JSONObject());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        JSONObject db = database();
+        JSONObject decoded = SessionCodec.decode(SessionCodec.encode(db));
+        assertTrue(db.similar(decoded), decoded.toString());
+    }
+
+    @Test
+    public void testRoundTripEmpty() {
+        assertTrue(SessionCodec.decode(SessionCodec.encode(new JSONObject())).isEmpty());
+    }
+
+    @Test
+    public void testReadEitherFormat() throws Exception {
+        JSONObject db = database();
+        Path text = dir.resolve("db.json");
+        Path binary = dir.resolve("db.bin");
+        Files.writeString(text, db.toString());
+        Files.write(binary, SessionCodec.encode(db));
+        assertFalse(SessionCodec.isBinary(text));
+        assertTrue(SessionCodec.isBinary(binary));
+        assertTrue(db.similar(SessionCodec.read(text)));
+        assertTrue(db.similar(SessionCodec.read(binary)));
+    }
+
+    @Test
+    public void testRejectMalformed() {
+        byte[] encoded = SessionCodec.encode(database());
+        assertThrows(JSONException.class, () -> SessionCodec.decode(Arrays.copyOf(encoded, encoded.length / 2)));
+        assertThrows(JSONException.class, () -> SessionCodec.decode("{}".getBytes()));
+        byte[] otherVersion = encoded.clone();
+        otherVersion[4]++;
+        assertThrows(JSONException.class, () -> SessionCodec.decode(otherVersion));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionLogTest {
+    /**
+     * The directory holding the log of each test
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Create a session with the description
+     *
+     * @param description the description
+     * @return the session
+     */
+    static JSONObject session(String description) {
+        return new JSONObject().put("description", description).put("tags", new JSONArray().put("tag"));
+    }
+
+    /**
+     * Replay the log at the path into an empty database, as a restarted process does
+     *
+     * @param logPath the path to the log
+     * @return the database
+     */
+    static JSONObject reload(Path logPath) {
+        JSONObject db = new JSONObject();
+        new SessionLog(logPath).replay(db);
+        return db;
+    }
+
+    @Test
+    public void testReplayInOrder() throws Exception {
+        Path logPath = dir.resolve("db.log");
+        SessionLog log = new SessionLog(logPath);
+        log.append(SessionLog.sessionRecord("alice", "s1", session("first")));
+        log.append(SessionLog.record("addTags", "alice", "s1").put("tags", new JSONArray().put("more")));
+        log.append(SessionLog.record("removeTag", "alice", "s1").put("tag", "tag"));
+        log.append(SessionLog.record("setDescription", "alice", "s1").put("description", "second"));
+        log.append(SessionLog.sessionRecord("bob", null, null));
+        log.flush();
+        assertEquals(Files.size(logPath), log.size());
+        JSONObject db = new JSONObject();
+        assertEquals(5, new SessionLog(logPath).replay(db));
+        JSONObject session = db.getJSONObject("alice").getJSONObject("s1");
+        assertEquals("second", session.getString("description"));
+        assertEquals(List.of("more"), session.getJSONArray("tags").toList());
+        assertTrue(db.getJSONObject("bob").isEmpty());
+    }
+
+    @Test
+    public void testAppendAfterTornTail() throws Exception {
+        Path logPath = dir.resolve("db.log");
+        SessionLog log = new SessionLog(logPath);
+        log.append(SessionLog.sessionRecord("alice", "s1", session("first")));
+        log.append(SessionLog.sessionRecord("alice", "s2", session("torn")));
+        log.flush();
+        // the process dies in the middle of appending the second record
+        long firstLength = Files.readString(logPath).indexOf('\n') + 1;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(firstLength + 10);
+        }
+        JSONObject db = reload(logPath);
+        assertTrue(db.getJSONObject("alice").has("s1"));
+        assertFalse(db.getJSONObject("alice").has("s2"));
+        // the restarted process commits a mutation, which must survive the next restart
+        SessionLog restarted = new SessionLog(logPath);
+        restarted.replay(new JSONObject());
+        restarted.append(SessionLog.record("setDescription", "alice", "s1").put("description", "committed"));
+        restarted.flush();
+        assertTrue(Files.readString(logPath).endsWith("\n"));
+        db = reload(logPath);
+        assertEquals("committed", db.getJSONObject("alice").getJSONObject("s1").getString("description"));
+        assertFalse(db.getJSONObject("alice").has("s2"));
+    }
+
+    @Test
+    public void testSkipRejectedRecord() throws Exception {
+        Path logPath = dir.resolve("db.log");
+        String lines = SessionLog.sessionRecord("alice", "s1", session("first")) + "\n"
+                + SessionLog.record("rename", "alice", "s1") + "\n"
+                + SessionLog.record("setDescription", "alice", "missing").put("description", "lost") + "\n"
+                + "{\"op\": \"set\", \"user\"\n"
+                + SessionLog.record("setDescription", "alice", "s1").put("description", "kept") + "\n";
+        Files.writeString(logPath, lines, StandardCharsets.UTF_8);
+        JSONObject db = new JSONObject();
+        // the unknown op, the missing session and the malformed line are skipped, the records after still apply
+        assertEquals(2, new SessionLog(logPath).replay(db));
+        assertEquals("kept", db.getJSONObject("alice").getJSONObject("s1").getString("description"));
+        assertFalse(db.getJSONObject("alice").has("missing"));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        Path logPath = dir.resolve("db.log");
+        SessionLog log = new SessionLog(logPath);
+        log.append(SessionLog.sessionRecord("alice", "s1", session("first")));
+        log.flush();
+        log.clear();
+        assertFalse(Files.exists(logPath));
+        assertEquals(0, log.size());
+        assertEquals(0, new SessionLog(logPath).replay(new JSONObject()));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpaceSavingSketchTest {
+    /**
+     * The number of counters of the sketches
+     */
+    static final int capacity = 50;
+
+    /**
+     * Draw a word of a skewed stream, a few words are frequent and most are rare
+     *
+     * @param random the random source
+     * @return the word
+     */
+    static String nextWord(Random random) {
+        return "w" + (int) Math.pow(2000, random.nextDouble() * random.nextDouble());
+    }
+
+    /**
+     * Offer a number of words of the stream to both the sketch and the exact counts
+     *
+     * @param random the random source
+     * @param count  the number of words
+     * @param sketch the sketch
+     * @param exact  the exact counts
+     */
+    static void offer(Random random, int count, SpaceSavingSketch sketch, Map<String, Long> exact) {
+        char[] buffer = new char[16];
+        for (int i = 0; i < count; i++) {
+            String word = nextWord(random);
+            word.getChars(0, word.length(), buffer, 0);
+            sketch.offer(buffer, word.length());
+            exact.merge(word, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Check the error bounds of the sketch against the exact counts
+     *
+     * @param sketch the sketch
+     * @param exact  the exact counts
+     */
+    static void assertBounded(SpaceSavingSketch sketch, Map<String, Long> exact) {
+        assertEquals(exact.values().stream().mapToLong(Long::longValue).sum(), sketch.getTotal());
+        long bound = sketch.getErrorBound();
+        Map<String, Long> estimates = new HashMap<>();
+        sketch.forEachTop(capacity, estimates::put);
+        assertEquals(Math.min(capacity, exact.size()), estimates.size());
+        // a count never underestimates, and overestimates by at most the bound
+        estimates.forEach((word, estimate) -> {
+            long count = exact.getOrDefault(word, 0L);
+            assertTrue(count <= estimate && estimate <= count + bound, word + ": " + estimate + " for " + count);
+        });
+        // any word more frequent than the bound is kept
+        exact.forEach((word, count) -> assertTrue(count <= bound || estimates.containsKey(word), word));
+    }
+
+    @Test
+    public void testCapacityOf() {
+        assertEquals(100, SpaceSavingSketch.capacityOf(0.01));
+        assertEquals(3, SpaceSavingSketch.capacityOf(0.4));
+    }
+
+    @Test
+    public void testExactBelowCapacity() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < capacity; i++) {
+            sketch.offer("w" + i, i + 1);
+            exact.put("w" + i, (long) i + 1);
+        }
+        Map<String, Long> estimates = new HashMap<>();
+        sketch.forEachTop(capacity, estimates::put);
+        assertEquals(exact, estimates);
+    }
+
+    @Test
+    public void testErrorBound() {
+        Random random = new Random(3021);
+        SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+        Map<String, Long> exact = new HashMap<>();
+        offer(random, 50000, sketch, exact);
+        assertTrue(exact.size() > capacity);
+        assertBounded(sketch, exact);
+    }
+
+    @Test
+    public void testMergeErrorBound() {
+        Random random = new Random(2025);
+        SpaceSavingSketch merged = new SpaceSavingSketch(capacity);
+        Map<String, Long> exact = new HashMap<>();
+        offer(random, 20000, merged, exact);
+        for (int i = 0; i < 4; i++) {
+            SpaceSavingSketch other = new SpaceSavingSketch(capacity);
+            offer(random, 5000 * (i + 1), other, exact);
+            merged.merge(other);
+            assertBounded(merged, exact);
+        }
+        // merging into an empty sketch keeps the counts
+        SpaceSavingSketch empty = new SpaceSavingSketch(capacity);
+        empty.merge(merged);
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        merged.forEachTop(capacity, (word, count) -> expected.add(word + "=" + count));
+        empty.forEachTop(capacity, (word, count) -> actual.add(word + "=" + count));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testForEachTopOrder() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+        sketch.offer("b", 3);
+        sketch.offer("a", 3);
+        sketch.offer("c", 5);
+        sketch.offer("d", 1);
+        List<String> top = new ArrayList<>();
+        sketch.forEachTop(3, (word, count) -> top.add(word + "=" + count));
+        assertEquals(List.of("c=5", "b=3", "a=3"), top);
+    }
+}
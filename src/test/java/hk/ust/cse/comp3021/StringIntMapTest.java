@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2025.
+ * Xiang Chen xchenht@connect.ust.hk
+ * This project is developed only for HKUST COMP3021 Programming Assignment
+ */
+
+package hk.ust.cse.comp3021;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringIntMapTest {
+    /**
+     * The keys drawn by the tests, few enough that keys are often added again after being removed
+     */
+    static final int numKeys = 500;
+
+    /**
+     * Check that the map holds exactly the counts of the oracle
+     *
+     * @param oracle the expected counts, without zero counts
+     * @param map    the map
+     */
+    static void assertSameCounts(Map<String, Integer> oracle, StringIntMap map) {
+        assertEquals(oracle.size(), map.size());
+        Map<String, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(oracle, actual);
+        for (int i = 0; i < numKeys; i++) {
+            String key = "k" + i;
+            assertEquals(oracle.getOrDefault(key, 0), map.get(key));
+            assertEquals(oracle.getOrDefault(key, 0), map.get(key.toCharArray(), key.length()));
+        }
+    }
+
+    /**
+     * Add to the count of a key in both the oracle and the map
+     *
+     * @param oracle the expected counts
+     * @param map    the map
+     * @param key    the key
+     * @param delta  the count to add
+     */
+    static void add(Map<String, Integer> oracle, StringIntMap map, String key, int delta) {
+        oracle.compute(key, (k, count) -> count == null ? (delta == 0 ? null : delta)
+                : (count + delta == 0 ? null : count + delta));
+        map.add(key, delta);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        Random random = new Random(3021);
+        Map<String, Integer> oracle = new HashMap<>();
+        StringIntMap map = new StringIntMap();
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(numKeys);
+            if (random.nextBoolean()) {
+                // drop the whole count, so that keys are removed and probe chains are shifted back
+                add(oracle, map, key, -oracle.getOrDefault(key, 0));
+            } else {
+                add(oracle, map, key, random.nextInt(5) + 1);
+            }
+        }
+        assertSameCounts(oracle, map);
+    }
+
+    @Test
+    public void testIncrement() {
+        Map<String, Integer> oracle = new HashMap<>();
+        StringIntMap map = new StringIntMap();
+        char[] buffer = new char[16];
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + (i * 7 % numKeys);
+            key.getChars(0, key.length(), buffer, 0);
+            map.increment(buffer, key.length());
+            oracle.merge(key, 1, Integer::sum);
+        }
+        assertSameCounts(oracle, map);
+    }
+
+    @Test
+    public void testAddAll() {
+        Random random = new Random(2025);
+        Map<String, Integer> oracle = new HashMap<>();
+        Map<String, Integer> otherOracle = new HashMap<>();
+        StringIntMap map = new StringIntMap();
+        StringIntMap other = new StringIntMap();
+        for (int i = 0; i < 3000; i++) {
+            add(oracle, map, "k" + random.nextInt(numKeys), 1);
+            add(otherOracle, other, "k" + random.nextInt(numKeys), 1);
+        }
+        map.addAll(other, 1);
+        otherOracle.forEach((key, count) -> oracle.merge(key, count, Integer::sum));
+        assertSameCounts(oracle, map);
+        // subtracting the same counts again removes the keys only counted by the other map
+        map.addAll(other, -1);
+        otherOracle.forEach((key, count) -> oracle.merge(key, -count, (a, b) -> a + b == 0 ? null : a + b));
+        assertSameCounts(oracle, map);
+    }
+
+    @Test
+    public void testForEachTop() {
+        Random random = new Random(1);
+        Map<String, Integer> oracle = new HashMap<>();
+        StringIntMap map = new StringIntMap();
+        for (int i = 0; i < 5000; i++) {
+            add(oracle, map, "k" + random.nextInt(numKeys), random.nextInt(3) + 1);
+        }
+        List<Map.Entry<String, Integer>> expected = new ArrayList<>(oracle.entrySet());
+        expected.sort(Map.Entry.<String, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey())
+                .reversed());
+        for (int topN : new int[]{0, 1, 10, numKeys, numKeys * 2}) {
+            List<Map.Entry<String, Integer>> actual = new ArrayList<>();
+            map.forEachTop(topN, (key, count) -> actual.add(Map.entry(key, count)));
+            assertEquals(expected.subList(0, Math.min(topN, expected.size())), actual);
+        }
+    }
+}